@@ -3,12 +3,38 @@ plugins {
 }
 
 dependencies {
+    implementation(project(":"))
+
     implementation("org.apache.commons:commons-compress:1.25.0")
 
     implementation("org.ow2.asm:asm:9.6")
     implementation("org.ow2.asm:asm-commons:9.6")
 }
 
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+dependencies {
+    "jmhImplementation"("org.apache.commons:commons-compress:1.25.0")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+    "jmhCompileOnly"("org.jetbrains:annotations:24.1.0")
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks with the GC profiler."
+    val resultFile = layout.buildDirectory.file("reports/jmh/results.json")
+    outputs.file(resultFile)
+    outputs.upToDateWhen { false }
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args("-prof", "gc", "-rf", "json", "-rff", resultFile.get().asFile.path)
+    (project.findProperty("jmh.includes") as String?)?.let { args(it) }
+}
+
 tasks.processResources {
     dependsOn(project(":").tasks.jar)
     dependsOn(project(":static-runtime").tasks.jar)
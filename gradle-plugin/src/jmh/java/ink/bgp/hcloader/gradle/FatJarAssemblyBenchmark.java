@@ -0,0 +1,109 @@
+package ink.bgp.hcloader.gradle;
+
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to write a 200 MB {@code DEFLATED} fat jar the way {@link HcLoaderCopyAction} does, one entry at a time
+ * or through {@link ParallelZipAssembler}. Entry contents are generated once, roughly half of them
+ * compressible text and the rest random bytes, so only the archive assembly is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FatJarAssemblyBenchmark {
+  private static final int TOTAL_SIZE = 200 * 1024 * 1024;
+  private static final int ENTRY_SIZE = 48 * 1024;
+  private static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
+  @Param({"SEQUENTIAL", "PARALLEL"})
+  public String assembly;
+
+  private String[] names;
+  private byte[][] contents;
+  private File output;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    final Random random = new Random(0);
+    final int entries = TOTAL_SIZE / ENTRY_SIZE;
+    names = new String[entries];
+    contents = new byte[entries][];
+    for (int i = 0; i < entries; i++) {
+      names[i] = "com/example/p" + (i % 64) + "/Generated" + i + ".class";
+      final byte[] content = new byte[random.nextInt(ENTRY_SIZE * 2)];
+      if (i % 2 == 0) {
+        random.nextBytes(content);
+      } else {
+        for (int j = 0; j < content.length; j++) {
+          content[j] = (byte) ('a' + random.nextInt(8));
+        }
+      }
+      contents[i] = content;
+    }
+    output = Files.createTempFile("hcloader-fat-jar", ".jar").toFile();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    output.delete();
+  }
+
+  @Benchmark
+  public long assemble() throws IOException {
+    try (final ZipArchiveOutputStream zipOutStr = new ZipArchiveOutputStream(output)) {
+      zipOutStr.setUseZip64(Zip64Mode.Never);
+      zipOutStr.setMethod(ZipArchiveOutputStream.DEFLATED);
+      if (assembly.equals("PARALLEL")) {
+        try (final ParallelZipAssembler assembler =
+                 new ParallelZipAssembler(zipOutStr, Runtime.getRuntime().availableProcessors())) {
+          for (int i = 0; i < names.length; i++) {
+            assembler.add(entry(i), contents[i]);
+          }
+          assembler.finish();
+        }
+      } else {
+        for (int i = 0; i < names.length; i++) {
+          zipOutStr.putArchiveEntry(entry(i));
+          zipOutStr.write(contents[i]);
+          zipOutStr.closeArchiveEntry();
+        }
+      }
+    }
+    return output.length();
+  }
+
+  private @NotNull ZipArchiveEntry entry(final int index) {
+    final ZipArchiveEntry entry = new ZipArchiveEntry(names[index]);
+    entry.setTime(ENTRY_TIME);
+    entry.setUnixMode(UnixStat.FILE_FLAG | 0644);
+    return entry;
+  }
+}
@@ -16,6 +16,7 @@ public final class HcLoaderConfigEntry implements Serializable {
     SELF_FIRST,
     PARENT_ONLY,
     SELF_ONLY,
-    FORBIDDEN;
+    FORBIDDEN,
+    SHARED_FIRST;
   }
 }
@@ -1,5 +1,6 @@
 package ink.bgp.hcloader.gradle;
 
+import ink.bgp.hcloader.archive.NestedJarIndex;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.compress.archivers.zip.UnixStat;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
@@ -30,8 +31,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 @RequiredArgsConstructor
@@ -62,12 +68,26 @@ public class HcLoaderCopyAction implements CopyAction {
   private final @NotNull String loaderPackage;
   private final boolean enableStaticInject;
   private final @NotNull String staticInjectName;
+  private final boolean parallelAssembly;
+  /**
+   * Entry names in the order they are loaded at startup, see {@link StartupProfile}.
+   */
+  private final @NotNull List<@NotNull String> startupOrder;
+  /**
+   * The directories holding nested jars, without trailing slash. Nested jars are rewritten in {@link #startupOrder}.
+   */
+  private final @NotNull Set<@NotNull String> nestedJarDirectories;
+  private final @Nullable NestedJarDeduplicator deduplicator;
+  private final @Nullable NestedJarIndexWriter indexWriter;
 
   @Override
   public @NotNull WorkResult execute(final @NotNull CopyActionProcessingStream stream) {
-    try (final ZipArchiveOutputStream zipOutStr = compressor.apply(zipFile)) {
+    try (final ZipArchiveOutputStream zipOutStr = compressor.apply(zipFile);
+         final ParallelZipAssembler assembler = parallelAssembly
+             ? new ParallelZipAssembler(zipOutStr, Runtime.getRuntime().availableProcessors())
+             : null) {
       try {
-        StreamAction action = new StreamAction(zipOutStr, encoding);
+        StreamAction action = new StreamAction(zipOutStr, assembler, encoding);
         stream.process(action);
         action.collect();
       } catch (final UncheckedIOException e) {
@@ -90,13 +110,21 @@ public class HcLoaderCopyAction implements CopyAction {
 
   private class StreamAction implements CopyActionProcessingStreamAction {
     private final ZipArchiveOutputStream zipOutStr;
+    private final @Nullable ParallelZipAssembler assembler;
     private boolean visitedTarget = false;
+    private final @NotNull Map<@NotNull String, @NotNull Integer> startupRanks = StartupProfile.ranks(startupOrder);
+    private final @NotNull List<@Nullable List<@NotNull HeldEntry>> heldEntries = new ArrayList<>();
 
-    public StreamAction(final @NotNull ZipArchiveOutputStream zipOutStr, final @Nullable String encoding) {
+    public StreamAction(
+        final @NotNull ZipArchiveOutputStream zipOutStr,
+        final @Nullable ParallelZipAssembler assembler,
+        final @Nullable String encoding) {
       this.zipOutStr = zipOutStr;
+      this.assembler = assembler;
       if (encoding != null) {
         this.zipOutStr.setEncoding(encoding);
       }
+      heldEntries.addAll(Collections.nCopies(startupRanks.size(), null));
     }
 
     @Override
@@ -180,20 +208,67 @@ public class HcLoaderCopyAction implements CopyAction {
       return classWriter.toByteArray();
     }
 
+    private boolean isStaticInjectTarget(final @NotNull ZipArchiveEntry archiveEntry) {
+      return enableStaticInject
+          // && archiveEntry.getName().endsWith(".class")
+          // && !archiveEntry.getName().startsWith(loaderPackage.replace('.', '/') + "/")
+          && archiveEntry.getName().equals(staticInjectName.replace('.', '/') + ".class");
+    }
+
     private void visitFile(FileCopyDetails fileDetails) {
       try {
         ZipArchiveEntry archiveEntry = new ZipArchiveEntry(fileDetails.getRelativePath().getPathString());
         archiveEntry.setTime(getArchiveTimeFor(fileDetails));
         archiveEntry.setUnixMode(UnixStat.FILE_FLAG | fileDetails.getPermissions().toUnixNumeric());
+
+        final Integer startupRank = startupRanks.get(archiveEntry.getName());
+        final boolean nestedJar = isNestedJar(archiveEntry.getName());
+        final boolean reorderedNestedJar = nestedJar && !startupRanks.isEmpty();
+        final boolean deduplicatedNestedJar = nestedJar && deduplicator != null;
+        final boolean indexedNestedJar = nestedJar && indexWriter != null;
+        if (deduplicator != null && !nestedJar) {
+          deduplicator.recordRootEntry(archiveEntry);
+        }
+        if (assembler != null || startupRank != null || reorderedNestedJar || deduplicatedNestedJar || indexedNestedJar) {
+          // Read on this thread, the details may not be usable once processFile returns
+          final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+          fileDetails.copyTo(bout);
+          byte[] content = bout.toByteArray();
+          if (reorderedNestedJar) {
+            content = StartupProfile.reorder(content, startupRanks);
+          }
+          if (indexedNestedJar) {
+            // before deduplicating, an alias stands for the same content
+            indexWriter.record(archiveEntry.getName(), content);
+          }
+          if (deduplicatedNestedJar && deduplicator.deduplicate(archiveEntry, content)) {
+            content = new byte[0];
+          }
+          if (isStaticInjectTarget(archiveEntry)) {
+            final byte[] result = processContent(content);
+            if (result != null) {
+              content = result;
+            }
+          }
+          if (startupRank != null) {
+            // Held back and written together in startup order once everything else is written
+            List<HeldEntry> held = heldEntries.get(startupRank);
+            if (held == null) {
+              held = new ArrayList<>(1);
+              heldEntries.set(startupRank, held);
+            }
+            held.add(new HeldEntry(archiveEntry, content));
+          } else {
+            writeEntry(archiveEntry, content);
+          }
+          return;
+        }
+
         zipOutStr.putArchiveEntry(archiveEntry);
 
         byte[] result;
 
-        if (enableStaticInject
-            // && archiveEntry.getName().endsWith(".class")
-            // && !archiveEntry.getName().startsWith(loaderPackage.replace('.', '/') + "/")
-            && archiveEntry.getName().equals(staticInjectName.replace('.', '/') + ".class")
-        ) {
+        if (isStaticInjectTarget(archiveEntry)) {
           final ByteArrayOutputStream bout = new ByteArrayOutputStream();
           fileDetails.copyTo(bout);
           result = processContent(bout.toByteArray());
@@ -213,6 +288,21 @@ public class HcLoaderCopyAction implements CopyAction {
       }
     }
 
+    private boolean isNestedJar(final @NotNull String name) {
+      final int lastSlash = name.lastIndexOf('/');
+      return lastSlash >= 0 && nestedJarDirectories.contains(name.substring(0, lastSlash));
+    }
+
+    private void writeEntry(final @NotNull ZipArchiveEntry archiveEntry, final byte @NotNull [] content) throws IOException {
+      if (assembler != null) {
+        assembler.add(archiveEntry, content);
+      } else {
+        zipOutStr.putArchiveEntry(archiveEntry);
+        zipOutStr.write(content);
+        zipOutStr.closeArchiveEntry();
+      }
+    }
+
     public void collect() throws IOException {
       if(enableStaticInject && !visitedTarget) {
         ClassNode classNode = new ClassNode(Opcodes.ASM9);
@@ -222,15 +312,45 @@ public class HcLoaderCopyAction implements CopyAction {
         classNode.superName = "java/lang/Object";
         processClassNode(classNode);
 
-        ZipArchiveEntry archiveEntry = new ZipArchiveEntry(classNode.name + ".class");
-        archiveEntry.setTime(preserveFileTimestamps ? System.currentTimeMillis() : CONSTANT_TIME_FOR_ZIP_ENTRIES);
-        archiveEntry.setUnixMode(UnixStat.FILE_FLAG);
-        zipOutStr.putArchiveEntry(archiveEntry);
         final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
         classNode.accept(classWriter);
-        zipOutStr.write(classWriter.toByteArray());
-        zipOutStr.closeArchiveEntry();
+        writeEntry(createGeneratedEntry(classNode.name + ".class"), classWriter.toByteArray());
+      }
+      if (indexWriter != null) {
+        writeEntry(createGeneratedEntry(NestedJarIndex.ENTRY_NAME), indexWriter.toByteArray());
+      }
+      // The startup entries form one block right before the central directory, which is read first when the jar
+      // is opened, so booting reads the tail of the file front to back
+      for (final List<HeldEntry> held : heldEntries) {
+        if (held != null) {
+          for (final HeldEntry entry : held) {
+            writeEntry(entry.archiveEntry, entry.content);
+          }
+        }
       }
+      if (assembler != null) {
+        assembler.finish();
+      }
+      if (deduplicator != null) {
+        deduplicator.writeReport();
+      }
+    }
+  }
+
+  private @NotNull ZipArchiveEntry createGeneratedEntry(final @NotNull String name) {
+    final ZipArchiveEntry archiveEntry = new ZipArchiveEntry(name);
+    archiveEntry.setTime(preserveFileTimestamps ? System.currentTimeMillis() : CONSTANT_TIME_FOR_ZIP_ENTRIES);
+    archiveEntry.setUnixMode(UnixStat.FILE_FLAG);
+    return archiveEntry;
+  }
+
+  private static final class HeldEntry {
+    private final @NotNull ZipArchiveEntry archiveEntry;
+    private final byte @NotNull [] content;
+
+    private HeldEntry(final @NotNull ZipArchiveEntry archiveEntry, final byte @NotNull [] content) {
+      this.archiveEntry = archiveEntry;
+      this.content = content;
     }
   }
 }
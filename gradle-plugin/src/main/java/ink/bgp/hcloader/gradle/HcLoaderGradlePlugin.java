@@ -16,16 +16,24 @@ public class HcLoaderGradlePlugin implements Plugin<Project> {
     final Configuration delegateRuntimeConfiguration = project.getConfigurations().create("delegateRuntime");
     final Configuration shadowRuntimeConfiguration = project.getConfigurations().create("shadowRuntime");
     final Configuration embeddedRuntimeConfiguration = project.getConfigurations().create("embeddedRuntime");
+    final Configuration sharedRuntimeConfiguration = project.getConfigurations().create("sharedRuntime");
 
     final HcLoaderJarTask hcLoaderJarTask = project.getTasks().create("hcLoaderJar", HcLoaderJarTask.class);
     hcLoaderJarTask.with(project.copySpec(copySpec -> {
       copySpec.from(delegateRuntimeConfiguration);
       copySpec.into("META-INF/hcloader/delegate");
     }));
+    hcLoaderJarTask.indexNestedJars("META-INF/hcloader/delegate");
     hcLoaderJarTask.with(project.copySpec(copySpec -> {
       copySpec.from(embeddedRuntimeConfiguration);
       copySpec.into("META-INF/hcloader/embedded");
     }));
+    hcLoaderJarTask.indexNestedJars("META-INF/hcloader/embedded");
+    hcLoaderJarTask.with(project.copySpec(copySpec -> {
+      copySpec.from(sharedRuntimeConfiguration);
+      copySpec.into("META-INF/hcloader/shared");
+    }));
+    hcLoaderJarTask.indexNestedJars("META-INF/hcloader/shared");
     hcLoaderJarTask.with(project.copySpec(copySpec ->
         copySpec.from(project.provider(() ->
             shadowRuntimeConfiguration.resolve()
@@ -1,9 +1,13 @@
 package ink.bgp.hcloader.gradle;
 
+import ink.bgp.hcloader.LoadConfigEntry;
+import ink.bgp.hcloader.LoadPolicy;
+import ink.bgp.hcloader.glob.GlobPattern;
 import lombok.SneakyThrows;
 import org.apache.commons.compress.archivers.zip.Zip64Mode;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.file.FileTree;
 import org.gradle.api.internal.DocumentationRegistry;
 import org.gradle.api.internal.file.FileCollectionFactory;
@@ -13,6 +17,11 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.bundling.ZipEntryCompression;
 import org.gradle.internal.IoActions;
 import org.gradle.internal.execution.OutputChangeListener;
@@ -39,14 +48,24 @@ import static org.gradle.api.internal.lambdas.SerializableLambdas.action;
 
 @CacheableTask
 public class HcLoaderJarTask extends Jar {
+  // the classes of the runtime that keep their name, see SharedClassLoaderRegistry and SharedJarFileRegistry
+  private static final @NotNull Set<@NotNull String> SHARED_REGISTRIES = Collections.unmodifiableSet(new HashSet<>(
+      Arrays.asList("ink/bgp/hcloader/SharedClassLoaderRegistry", "ink/bgp/hcloader/SharedJarFileRegistry")));
+
   private final @NotNull UUID instanceId = UUID.randomUUID();
   private final @NotNull Property<String> loaderPackage;
   private final @NotNull Property<Boolean> enableStaticInject;
   private final @NotNull Property<String> staticInjectClass;
   private final @NotNull Property<Boolean> enableCopyInjector;
   private final @NotNull Property<Boolean> enableCopyJar;
+  private final @NotNull Property<Boolean> parallelAssembly;
+  private final @NotNull Property<Boolean> enableIndex;
+  private final @NotNull RegularFileProperty startupProfile;
+  private final @NotNull Property<Boolean> deduplicate;
+  private final @NotNull RegularFileProperty deduplicationReport;
 
   private final @NotNull List<@NotNull HcLoaderConfigEntry> loadConfig = new ArrayList<>();
+  private final @NotNull Set<@NotNull String> nestedJarDirectories = new LinkedHashSet<>();
 
   public HcLoaderJarTask() {
     this.loaderPackage = getObjectFactory().property(String.class)
@@ -59,6 +78,15 @@ public class HcLoaderJarTask extends Jar {
         .convention(true);
     this.enableCopyJar = getObjectFactory().property(Boolean.class)
         .convention(true);
+    this.parallelAssembly = getObjectFactory().property(Boolean.class)
+        .convention(false);
+    this.enableIndex = getObjectFactory().property(Boolean.class)
+        .convention(true);
+    this.startupProfile = getObjectFactory().fileProperty();
+    this.deduplicate = getObjectFactory().property(Boolean.class)
+        .convention(false);
+    this.deduplicationReport = getObjectFactory().fileProperty()
+        .convention(getProject().getLayout().getBuildDirectory().file("reports/hcloader/" + getName() + "-deduplication.txt"));
 
     setEntryCompression(ZipEntryCompression.STORED);
 
@@ -98,6 +126,62 @@ public class HcLoaderJarTask extends Jar {
     return enableCopyJar;
   }
 
+  /**
+   * Deflate entries on all cores and write them in order. Only used for {@code DEFLATED} archives without zip64,
+   * where the result is byte for byte the same as writing sequentially.
+   */
+  @Input
+  public @NotNull Property<@NotNull Boolean> getParallelAssembly() {
+    return parallelAssembly;
+  }
+
+  /**
+   * Write {@code META-INF/hcloader/index}, which lists the nested jars in the directories registered with
+   * {@link #indexNestedJars(String)} and the packages they hold, so the runtime can open them by name and skip
+   * probing them for packages they don't have.
+   */
+  @Input
+  public @NotNull Property<@NotNull Boolean> getEnableIndex() {
+    return enableIndex;
+  }
+
+  /**
+   * A recorded class load order, like the output of {@code -verbose:class} or {@code -Xlog:class+load}, see
+   * {@link StartupProfile}. Entries of the archive named in it are written together in that order, so reading them
+   * at startup goes through the file front to back. Nested jars in the directories registered with
+   * {@link #indexNestedJars(String)} are rewritten with their entries in the same order.
+   */
+  @InputFile
+  @Optional
+  @PathSensitive(PathSensitivity.NONE)
+  public @NotNull RegularFileProperty getStartupProfile() {
+    return startupProfile;
+  }
+
+  /**
+   * Store nested jars with the same content only once, see {@link NestedJarDeduplicator}. Only nested jars in the
+   * directories registered with {@link #indexNestedJars(String)} are deduplicated.
+   */
+  @Input
+  public @NotNull Property<@NotNull Boolean> getDeduplicate() {
+    return deduplicate;
+  }
+
+  /**
+   * Lists the deduplicated nested jars, and the entries of the archive that are also in a nested jar.
+   */
+  @OutputFile
+  public @NotNull RegularFileProperty getDeduplicationReport() {
+    return deduplicationReport;
+  }
+
+  /**
+   * List every file copied into the given directory in the index as a nested jar. Nothing else may be copied there.
+   */
+  public void indexNestedJars(final @NotNull String directory) {
+    nestedJarDirectories.add(directory);
+  }
+
   private void copyFromJar() {
     with(getProject().copySpec(copySpec -> {
       copySpec.from(getProject().provider(()-> {
@@ -167,6 +251,10 @@ public class HcLoaderJarTask extends Jar {
     final Remapper remapper = new Remapper() {
       @Override
       public String map(String internalName) {
+        // shared by every plugin through the common parent class loader, so never relocated
+        if (SHARED_REGISTRIES.contains(internalName)) {
+          return super.map(internalName);
+        }
         if (internalName.startsWith("ink/bgp/hcloader/")) {
           return super.map(loaderPackage + "/" + internalName.substring("ink/bgp/hcloader/".length()));
         }
@@ -194,18 +282,30 @@ public class HcLoaderJarTask extends Jar {
   @SneakyThrows
   private void writeLoaderConfig(final @NotNull OutputStream rawOut) {
     final DataOutputStream out = new DataOutputStream(rawOut);
-    int loadConfigSize = loadConfig.size();
-    out.writeInt(loadConfigSize);
+    // in the order of the runtime rules and without duplicates, so reading the file needs no sort
+    final Set<LoadConfigEntry> entries = new TreeSet<>();
+    for (final HcLoaderConfigEntry entry : loadConfig) {
+      entries.add(LoadConfigEntry.of(entry.priority(), entry.globPattern(), LoadPolicy.valueOf(entry.policy().name())));
+    }
 
-    for (int i = 0; i < loadConfigSize; i++) {
-      final HcLoaderConfigEntry entry = loadConfig.get(i);
+    out.writeInt(LoadConfigEntry.CONFIG_MAGIC);
+    out.writeInt(LoadConfigEntry.CONFIG_VERSION);
+    out.writeInt(entries.size());
+    for (final LoadConfigEntry entry : entries) {
       out.writeInt(entry.priority());
+      out.writeByte(entry.policy().ordinal());
       out.writeUTF(entry.globPattern());
-      out.writeUTF(entry.policy().name());
+      GlobPattern.writeCompiled(entry.globPattern(), out);
     }
     out.flush();
   }
 
+  private @NotNull List<@NotNull String> readStartupOrder() throws IOException {
+    return startupProfile.isPresent()
+        ? StartupProfile.read(startupProfile.get().getAsFile())
+        : Collections.emptyList();
+  }
+
   @SneakyThrows
   private void computeCacheEntry(
       final @NotNull FileCollectionFactory fileCollectionFactory,
@@ -247,6 +347,7 @@ public class HcLoaderJarTask extends Jar {
   }
 
   @Override
+  @SneakyThrows
   protected @NotNull CopyAction createCopyAction() {
     final DocumentationRegistry documentationRegistry = getServices().get(DocumentationRegistry.class);
     return new HcLoaderCopyAction(
@@ -257,7 +358,17 @@ public class HcLoaderJarTask extends Jar {
         isPreserveFileTimestamps(),
         computeLoaderPackage(),
         enableStaticInject.get(),
-        staticInjectClass.get());
+        staticInjectClass.get(),
+        parallelAssembly.get()
+            // with zip64 the sequential path leaves placeholder extra fields that raw entries can't reproduce
+            && getEntryCompression() == ZipEntryCompression.DEFLATED
+            && !isZip64(),
+        readStartupOrder(),
+        new HashSet<>(nestedJarDirectories),
+        deduplicate.get()
+            ? new NestedJarDeduplicator(new HashSet<>(nestedJarDirectories), deduplicationReport.get().getAsFile())
+            : null,
+        enableIndex.get() ? new NestedJarIndexWriter(new LinkedHashSet<>(nestedJarDirectories)) : null);
   }
 
   @SneakyThrows
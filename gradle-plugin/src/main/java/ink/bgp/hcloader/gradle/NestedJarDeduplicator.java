@@ -0,0 +1,142 @@
+package ink.bgp.hcloader.gradle;
+
+import ink.bgp.hcloader.archive.JarFileArchive;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores every nested jar only once. A nested jar with the same SHA-256 as one written before, whether it is in the
+ * same directory or another one, is written as an empty entry with an {@code ALIAS:} comment naming the stored jar,
+ * which {@code JarFileArchive} in the runtime follows. A jar is only aliased to a stored one with the same entry
+ * comment, so markers such as {@code UNPACK:} are never overwritten and the stored jar carries them for the alias.
+ * Entries of the archive itself that are also in a nested jar
+ * are only reported: they are loaded by a different class loader, so dropping either copy would change which
+ * classes the plugin sees.
+ */
+/* package-private */ final class NestedJarDeduplicator {
+  private final @NotNull Set<@NotNull String> nestedJarDirectories;
+  private final @NotNull File report;
+
+  // stored jar names by entry comment, then by SHA-256 of the content
+  private final @NotNull Map<@NotNull String, @NotNull Map<@NotNull ByteBuffer, @NotNull String>> storedJars =
+      new HashMap<>();
+  private final @NotNull Map<@NotNull String, @NotNull NestedEntry> nestedEntries = new HashMap<>();
+  private final @NotNull List<@NotNull String> aliases = new ArrayList<>();
+  private final @NotNull List<@NotNull ZipArchiveEntry> rootEntries = new ArrayList<>();
+  private long savedBytes;
+
+  /**
+   * @param nestedJarDirectories the directories holding nested jars, without trailing slash
+   * @param report               where to write the report
+   */
+  public NestedJarDeduplicator(final @NotNull Set<@NotNull String> nestedJarDirectories, final @NotNull File report) {
+    this.nestedJarDirectories = nestedJarDirectories;
+    this.report = report;
+  }
+
+  public boolean isNestedJar(final @NotNull String name) {
+    final int lastSlash = name.lastIndexOf('/');
+    return lastSlash >= 0 && nestedJarDirectories.contains(name.substring(0, lastSlash));
+  }
+
+  /**
+   * Turn the entry of a nested jar into an alias if the same jar was stored before.
+   *
+   * @return whether the entry became an alias, in which case it must be written without content
+   */
+  public boolean deduplicate(final @NotNull ZipArchiveEntry archiveEntry, final byte @NotNull [] content) {
+    final ByteBuffer digest = ByteBuffer.wrap(sha256(content));
+    final String comment = archiveEntry.getComment() == null ? "" : archiveEntry.getComment();
+    final String stored = storedJars.computeIfAbsent(comment, key -> new HashMap<>())
+        .putIfAbsent(digest, archiveEntry.getName());
+    if (stored == null) {
+      recordNestedEntries(archiveEntry.getName(), content);
+      return false;
+    }
+    archiveEntry.setComment(JarFileArchive.ALIAS_MARKER + stored);
+    aliases.add(archiveEntry.getName() + " -> " + stored + " (" + content.length + " bytes)");
+    savedBytes += content.length;
+    return true;
+  }
+
+  /**
+   * Remember an entry of the archive itself. Its CRC is only looked at once the archive is written.
+   */
+  public void recordRootEntry(final @NotNull ZipArchiveEntry archiveEntry) {
+    if (!archiveEntry.getName().startsWith("META-INF/")) {
+      rootEntries.add(archiveEntry);
+    }
+  }
+
+  public void writeReport() throws IOException {
+    Files.createDirectories(report.getParentFile().toPath());
+    try (final PrintWriter out = new PrintWriter(Files.newBufferedWriter(report.toPath(), StandardCharsets.UTF_8))) {
+      out.println("# Nested jars stored once, the other copies are aliases of the stored one");
+      for (final String alias : aliases) {
+        out.println(alias);
+      }
+      out.println("# Entries also in a nested jar with the same content, kept as they belong to another class loader");
+      int shadowed = 0;
+      for (final ZipArchiveEntry rootEntry : rootEntries) {
+        final NestedEntry nestedEntry = nestedEntries.get(rootEntry.getName());
+        if (nestedEntry != null && nestedEntry.crc == rootEntry.getCrc() && nestedEntry.size == rootEntry.getSize()) {
+          out.println(rootEntry.getName() + " = " + nestedEntry.nestedJar);
+          shadowed++;
+        }
+      }
+      out.println("# " + aliases.size() + " nested jars deduplicated, " + savedBytes + " bytes saved, "
+          + shadowed + " entries also in nested jars");
+    }
+  }
+
+  private void recordNestedEntries(final @NotNull String nestedJar, final byte @NotNull [] content) {
+    try (final ZipFile zipFile = new ZipFile(new SeekableInMemoryByteChannel(content))) {
+      final Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+      while (entries.hasMoreElements()) {
+        final ZipArchiveEntry entry = entries.nextElement();
+        if (!entry.isDirectory() && !entry.getName().startsWith("META-INF/")) {
+          nestedEntries.putIfAbsent(entry.getName(), new NestedEntry(nestedJar, entry.getCrc(), entry.getSize()));
+        }
+      }
+    } catch (final IOException e) {
+      // Not a zip, so nothing to compare against
+    }
+  }
+
+  private static byte @NotNull [] sha256(final byte @NotNull [] content) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(content);
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  private static final class NestedEntry {
+    private final @NotNull String nestedJar;
+    private final long crc;
+    private final long size;
+
+    private NestedEntry(final @NotNull String nestedJar, final long crc, final long size) {
+      this.nestedJar = nestedJar;
+      this.crc = crc;
+      this.size = size;
+    }
+  }
+}
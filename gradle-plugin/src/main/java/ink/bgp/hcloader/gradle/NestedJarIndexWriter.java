@@ -0,0 +1,102 @@
+package ink.bgp.hcloader.gradle;
+
+import ink.bgp.hcloader.archive.NestedJarIndex;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Collects the nested jars as {@link HcLoaderCopyAction} writes them and builds {@code META-INF/hcloader/index} from
+ * them, see {@code NestedJarIndex} in the runtime. The CRC and size are those of the bytes written, so the index
+ * matches whatever the copy action did to the jar on the way.
+ */
+/* package-private */ final class NestedJarIndexWriter {
+  private final @NotNull Set<@NotNull String> nestedJarDirectories;
+  private final @NotNull Map<@NotNull String, @NotNull IndexedJar> nestedJars = new LinkedHashMap<>();
+
+  /**
+   * @param nestedJarDirectories the directories holding nested jars, without trailing slash, in a stable order
+   */
+  public NestedJarIndexWriter(final @NotNull Set<@NotNull String> nestedJarDirectories) {
+    this.nestedJarDirectories = nestedJarDirectories;
+  }
+
+  /**
+   * Record a nested jar with the content it is stored with. A nested jar written as an alias is recorded with the
+   * content of the jar it names, which is what the runtime checks.
+   */
+  public void record(final @NotNull String name, final byte @NotNull [] content) throws IOException {
+    if (nestedJars.containsKey(name)) {
+      // the runtime looks up the first entry with a name
+      return;
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(content);
+    nestedJars.put(name, new IndexedJar(crc.getValue(), content.length, computePackages(content)));
+  }
+
+  /**
+   * @return the index, listing the nested jars in the order they were recorded
+   */
+  public byte @NotNull [] toByteArray() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(NestedJarIndex.INDEX_MAGIC);
+    out.writeInt(NestedJarIndex.INDEX_VERSION);
+    // the runtime checks that these directories hold no nested jar missing from the index
+    out.writeInt(nestedJarDirectories.size());
+    for (final String directory : nestedJarDirectories) {
+      out.writeUTF(directory + "/");
+    }
+    out.writeInt(nestedJars.size());
+    for (final Map.Entry<String, IndexedJar> nestedJar : nestedJars.entrySet()) {
+      final IndexedJar indexedJar = nestedJar.getValue();
+      out.writeUTF(nestedJar.getKey());
+      out.writeLong(indexedJar.crc);
+      out.writeLong(indexedJar.size);
+      out.writeInt(indexedJar.packages.size());
+      for (final String packageName : indexedJar.packages) {
+        out.writeUTF(packageName);
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * The package of every entry, with versioned entries of multi-release jars in the package they are looked up in.
+   */
+  private static @NotNull Set<@NotNull String> computePackages(final byte @NotNull [] content) throws IOException {
+    final Set<String> packages = new TreeSet<>();
+    try (final ZipFile zipFile = new ZipFile(new SeekableInMemoryByteChannel(content))) {
+      final Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+      while (entries.hasMoreElements()) {
+        packages.add(NestedJarIndex.getEntryPackageName(entries.nextElement().getName()));
+      }
+    }
+    return packages;
+  }
+
+  private static final class IndexedJar {
+    private final long crc;
+    private final long size;
+    private final @NotNull Set<@NotNull String> packages;
+
+    private IndexedJar(final long crc, final long size, final @NotNull Set<@NotNull String> packages) {
+      this.crc = crc;
+      this.size = size;
+      this.packages = packages;
+    }
+  }
+}
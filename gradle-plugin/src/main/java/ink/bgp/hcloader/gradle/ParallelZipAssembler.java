@@ -0,0 +1,117 @@
+package ink.bgp.hcloader.gradle;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates entries on a thread pool and writes them to the archive in the order they were added.
+ * <p>
+ * commons-compress' {@code ParallelScatterZipCreator} keeps one scatter stream per worker thread and
+ * concatenates them, so the entry order depends on scheduling. Here every entry is compressed into its own
+ * buffer instead and handed to {@link ZipArchiveOutputStream#addRawArchiveEntry} in submission order, which
+ * gives the same bytes as deflating it in place. At most {@code 4 * threads} entries are in flight, which
+ * bounds the memory held in buffers.
+ */
+/* package-private */ final class ParallelZipAssembler implements Closeable {
+  private final @NotNull ZipArchiveOutputStream zipOutStr;
+  private final @NotNull ExecutorService executor;
+  private final int maxInFlight;
+  private final @NotNull Deque<@NotNull Future<@NotNull CompressedEntry>> inFlight = new ArrayDeque<>();
+
+  public ParallelZipAssembler(final @NotNull ZipArchiveOutputStream zipOutStr, final int threads) {
+    this.zipOutStr = zipOutStr;
+    this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+      final Thread thread = new Thread(runnable, "hcloader-zip-deflater");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.maxInFlight = threads * 4;
+  }
+
+  /**
+   * Queue an entry. Earlier entries whose compression has finished may be written out before this returns.
+   */
+  public void add(final @NotNull ZipArchiveEntry entry, final byte @NotNull [] content) throws IOException {
+    inFlight.add(executor.submit(() -> compress(entry, content)));
+    while (inFlight.size() > maxInFlight || (!inFlight.isEmpty() && inFlight.peek().isDone())) {
+      writeNext();
+    }
+  }
+
+  /**
+   * Write every queued entry. Must be called before anything else is written to the archive.
+   */
+  public void finish() throws IOException {
+    while (!inFlight.isEmpty()) {
+      writeNext();
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private void writeNext() throws IOException {
+    final CompressedEntry compressed;
+    try {
+      compressed = inFlight.poll().get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing " + zipOutStr);
+    } catch (final ExecutionException e) {
+      throw new IOException("Could not compress entry", e.getCause());
+    }
+    zipOutStr.addRawArchiveEntry(compressed.entry, new ByteArrayInputStream(
+        compressed.buffer.toByteArray(), 0, compressed.buffer.size()));
+  }
+
+  private static @NotNull CompressedEntry compress(final @NotNull ZipArchiveEntry entry, final byte @NotNull [] content) {
+    // Same settings as ZipArchiveOutputStream uses for DEFLATED entries
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, content.length / 2));
+    try {
+      deflater.setInput(content);
+      deflater.finish();
+      final byte[] chunk = new byte[8192];
+      while (!deflater.finished()) {
+        buffer.write(chunk, 0, deflater.deflate(chunk));
+      }
+    } finally {
+      deflater.end();
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(content, 0, content.length);
+    entry.setMethod(ZipArchiveEntry.DEFLATED);
+    entry.setSize(content.length);
+    entry.setCompressedSize(buffer.size());
+    entry.setCrc(crc.getValue());
+    return new CompressedEntry(entry, buffer);
+  }
+
+  private static final class CompressedEntry {
+    private final @NotNull ZipArchiveEntry entry;
+    private final @NotNull ByteArrayOutputStream buffer;
+
+    private CompressedEntry(final @NotNull ZipArchiveEntry entry, final @NotNull ByteArrayOutputStream buffer) {
+      this.entry = entry;
+      this.buffer = buffer;
+    }
+  }
+}
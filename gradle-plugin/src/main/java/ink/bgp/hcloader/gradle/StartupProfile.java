@@ -0,0 +1,160 @@
+package ink.bgp.hcloader.gradle;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the order in which classes and resources were loaded at startup, and orders the entries of nested jars by it. Every line names one class or entry, the
+ * first time a name shows up counts. Understood are
+ * <ul>
+ *   <li>the output of {@code -verbose:class} on Java 8, like {@code [Loaded com.example.Foo from file:/...]},</li>
+ *   <li>the output of {@code -Xlog:class+load} on Java 9 and later, like
+ *   {@code [0.123s][info][class,load] com.example.Foo source: file:/...},</li>
+ *   <li>plain class names like {@code com.example.Foo},</li>
+ *   <li>and entry names like {@code com/example/Foo.class} or {@code /plugin.yml}, which must contain a slash.</li>
+ * </ul>
+ * Blank lines, lines starting with {@code #} and other log lines are skipped.
+ */
+/* package-private */ final class StartupProfile {
+  private static final @NotNull String VERBOSE_CLASS_PREFIX = "[Loaded ";
+  private static final @NotNull String CLASS_LOAD_TAG = "[class,load]";
+  private static final @NotNull String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+  private StartupProfile() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return the entry names in the order they were first loaded
+   */
+  public static @NotNull List<@NotNull String> read(final @NotNull File file) throws IOException {
+    final Set<String> entryNames = new LinkedHashSet<>();
+    try (final BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final String entryName = toEntryName(line.trim());
+        if (entryName != null) {
+          entryNames.add(entryName);
+        }
+      }
+    }
+    return new ArrayList<>(entryNames);
+  }
+
+  /**
+   * @return the rank of every entry name in the given startup order, without the manifest, which has to stay where
+   *         {@code JarInputStream} looks for it
+   */
+  public static @NotNull Map<@NotNull String, @NotNull Integer> ranks(final @NotNull List<@NotNull String> startupOrder) {
+    final Map<String, Integer> ranks = new HashMap<>();
+    for (final String entryName : startupOrder) {
+      if (!entryName.equals(MANIFEST_NAME)) {
+        ranks.putIfAbsent(entryName, ranks.size());
+      }
+    }
+    return ranks;
+  }
+
+  /**
+   * Rewrite a nested jar the way the archive itself is written: its ranked entries go last, right before the central
+   * directory, in rank order, and all other entries keep their order in front of them. Entries are copied as they are
+   * stored, so the result only depends on the given bytes and ranks.
+   *
+   * @return the rewritten jar, or the given bytes if none of its entries is ranked or it can't be read as a zip
+   */
+  public static byte @NotNull [] reorder(final byte @NotNull [] jar, final @NotNull Map<@NotNull String, @NotNull Integer> ranks) {
+    if (ranks.isEmpty()) {
+      return jar;
+    }
+    try (final ZipFile zipFile = new ZipFile(new SeekableInMemoryByteChannel(jar))) {
+      final List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntries());
+      final List<ZipArchiveEntry> ranked = new ArrayList<>();
+      final List<ZipArchiveEntry> unranked = new ArrayList<>();
+      for (final ZipArchiveEntry entry : entries) {
+        (ranks.containsKey(entry.getName()) ? ranked : unranked).add(entry);
+      }
+      if (ranked.isEmpty()) {
+        return jar;
+      }
+      // stable, so duplicate names keep their order
+      ranked.sort(Comparator.comparingInt(entry -> ranks.get(entry.getName())));
+      final SeekableInMemoryByteChannel channel = new SeekableInMemoryByteChannel();
+      try (final ZipArchiveOutputStream out = new ZipArchiveOutputStream(channel)) {
+        for (final ZipArchiveEntry entry : unranked) {
+          copyRaw(zipFile, entry, out);
+        }
+        for (final ZipArchiveEntry entry : ranked) {
+          copyRaw(zipFile, entry, out);
+        }
+      }
+      return Arrays.copyOf(channel.array(), (int) channel.size());
+    } catch (final IOException e) {
+      // Not a zip, so there is nothing to order
+      return jar;
+    }
+  }
+
+  private static void copyRaw(
+      final @NotNull ZipFile zipFile,
+      final @NotNull ZipArchiveEntry entry,
+      final @NotNull ZipArchiveOutputStream out) throws IOException {
+    try (final InputStream in = zipFile.getRawInputStream(entry)) {
+      out.addRawArchiveEntry(entry, in);
+    }
+  }
+
+  private static @Nullable String toEntryName(final @NotNull String line) {
+    if (line.isEmpty() || line.startsWith("#")) {
+      return null;
+    }
+    if (line.startsWith(VERBOSE_CLASS_PREFIX)) {
+      return classEntryName(firstToken(line.substring(VERBOSE_CLASS_PREFIX.length())));
+    }
+    final int tag = line.indexOf(CLASS_LOAD_TAG);
+    if (tag >= 0) {
+      return classEntryName(firstToken(line.substring(tag + CLASS_LOAD_TAG.length()).trim()));
+    }
+    if (line.startsWith("[")) {
+      // some other log line
+      return null;
+    }
+    final String token = firstToken(line);
+    if (token.indexOf('/') >= 0) {
+      return token.startsWith("/") ? token.substring(1) : token;
+    }
+    return classEntryName(token);
+  }
+
+  private static @NotNull String firstToken(final @NotNull String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (Character.isWhitespace(text.charAt(i)) || text.charAt(i) == ']') {
+        return text.substring(0, i);
+      }
+    }
+    return text;
+  }
+
+  private static @NotNull String classEntryName(final @NotNull String className) {
+    return className.replace('.', '/') + ".class";
+  }
+}
@@ -0,0 +1,103 @@
+package ink.bgp.hcloader.gradle;
+
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * {@link ParallelZipAssembler} writes the same archive, byte for byte, as {@link ZipArchiveOutputStream} deflating
+ * every entry in place, which is what {@link HcLoaderCopyAction} does without parallel assembly.
+ */
+class ParallelZipAssemblerTests {
+  private static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void writesSameBytesAsSequentialWriter() throws IOException {
+    final List<String> names = new ArrayList<>();
+    final List<byte[]> contents = new ArrayList<>();
+    final Random random = new Random(0);
+    for (int i = 0; i < 200; i++) {
+      names.add("com/example/p" + (i % 7) + "/Generated" + i + ".class");
+      // empty, tiny and larger than the deflater's output chunks, both compressible and not
+      final byte[] content = new byte[i % 10 == 0 ? 0 : random.nextInt(i % 3 == 0 ? 256 : 96 * 1024)];
+      if (i % 2 == 0) {
+        random.nextBytes(content);
+      } else {
+        for (int j = 0; j < content.length; j++) {
+          content[j] = (byte) ('a' + random.nextInt(8));
+        }
+      }
+      contents.add(content);
+    }
+    names.add("META-INF/hcloader/delegate/\u00e9t\u00e9-\u4e2d\u6587.jar");
+    contents.add(new byte[]{'P', 'K', 3, 4});
+
+    final byte[] sequential = writeSequentially(names, contents);
+    for (final int threads : new int[]{1, 2, 8}) {
+      assertArrayEquals(sequential, writeInParallel(names, contents, threads), threads + " threads");
+    }
+  }
+
+  private byte[] writeSequentially(final List<String> names, final List<byte[]> contents) throws IOException {
+    final File output = tempDir.resolve("sequential.jar").toFile();
+    try (final ZipArchiveOutputStream zipOutStr = createOutputStream(output)) {
+      for (int i = 0; i < names.size(); i++) {
+        zipOutStr.putArchiveEntry(entry(names.get(i), i));
+        zipOutStr.write(contents.get(i));
+        zipOutStr.closeArchiveEntry();
+      }
+    }
+    return Files.readAllBytes(output.toPath());
+  }
+
+  private byte[] writeInParallel(
+      final List<String> names,
+      final List<byte[]> contents,
+      final int threads) throws IOException {
+    final File output = tempDir.resolve("parallel-" + threads + ".jar").toFile();
+    try (final ZipArchiveOutputStream zipOutStr = createOutputStream(output);
+         final ParallelZipAssembler assembler = new ParallelZipAssembler(zipOutStr, threads)) {
+      for (int i = 0; i < names.size(); i++) {
+        assembler.add(entry(names.get(i), i), contents.get(i));
+      }
+      assembler.finish();
+    }
+    return Files.readAllBytes(output.toPath());
+  }
+
+  private static ZipArchiveOutputStream createOutputStream(final File output) throws IOException {
+    // as HcLoaderJarTask configures it when parallel assembly is used
+    final ZipArchiveOutputStream zipOutStr = new ZipArchiveOutputStream(output);
+    zipOutStr.setUseZip64(Zip64Mode.Never);
+    zipOutStr.setMethod(ZipArchiveOutputStream.DEFLATED);
+    return zipOutStr;
+  }
+
+  private static ZipArchiveEntry entry(final String name, final int index) {
+    final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+    entry.setTime(ENTRY_TIME + index * 2000L);
+    entry.setUnixMode(UnixStat.FILE_FLAG | (index % 4 == 0 ? 0755 : 0644));
+    if (index % 5 == 0) {
+      entry.setComment("UNPACK:" + index);
+    }
+    return entry;
+  }
+}
@@ -0,0 +1,100 @@
+package ink.bgp.hcloader;
+
+import ink.bgp.hcloader.glob.GlobPattern;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of reading {@code META-INF/hcloader/delegateconfig} in the legacy format, which compiles every
+ * glob at runtime, and in the versioned format, which carries the compiled globs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadConfigBenchmark {
+  private static final String[] PACKAGES = {
+      "com/google/common", "com/google/gson", "io/netty", "org/slf4j", "org/apache/commons",
+      "kotlin", "kotlinx/coroutines", "org/yaml/snakeyaml", "it/unimi/dsi/fastutil", "org/objectweb/asm",
+  };
+
+  @Param({"16", "256"})
+  public int rules;
+
+  private byte[] legacyConfig;
+  private byte[] versionedConfig;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    final ByteArrayOutputStream legacyBytes = new ByteArrayOutputStream();
+    final DataOutputStream legacyOut = new DataOutputStream(legacyBytes);
+    final ByteArrayOutputStream versionedBytes = new ByteArrayOutputStream();
+    final DataOutputStream versionedOut = new DataOutputStream(versionedBytes);
+
+    legacyOut.writeInt(rules);
+    versionedOut.writeInt(LoadConfigEntry.CONFIG_MAGIC);
+    versionedOut.writeInt(LoadConfigEntry.CONFIG_VERSION);
+    versionedOut.writeInt(rules);
+    for (int i = 0; i < rules; i++) {
+      final String glob = glob(i);
+      final LoadPolicy policy = (i % 3 == 0) ? LoadPolicy.PARENT_FIRST : LoadPolicy.SELF_FIRST;
+
+      legacyOut.writeInt(i);
+      legacyOut.writeUTF(glob);
+      legacyOut.writeUTF(policy.name());
+
+      versionedOut.writeInt(i);
+      versionedOut.writeByte(policy.ordinal());
+      versionedOut.writeUTF(glob);
+      GlobPattern.writeCompiled(glob, versionedOut);
+    }
+    legacyOut.flush();
+    versionedOut.flush();
+    legacyConfig = legacyBytes.toByteArray();
+    versionedConfig = versionedBytes.toByteArray();
+  }
+
+  private static @NotNull String glob(final int index) {
+    final String packageName = PACKAGES[index % PACKAGES.length] + "/p" + index;
+    switch (index % 4) {
+      case 0:
+        return packageName + "/**";
+      case 1:
+        return "**/" + packageName + "/**";
+      case 2:
+        return packageName + "/**/*.class";
+      default:
+        return packageName + "/Main.class";
+    }
+  }
+
+  @Benchmark
+  public @NotNull List<@NotNull LoadConfigEntry> readLegacy() throws IOException {
+    return LoadConfigEntry.read(new ByteArrayInputStream(legacyConfig));
+  }
+
+  @Benchmark
+  public @NotNull List<@NotNull LoadConfigEntry> readVersioned() throws IOException {
+    return LoadConfigEntry.read(new ByteArrayInputStream(versionedConfig));
+  }
+}
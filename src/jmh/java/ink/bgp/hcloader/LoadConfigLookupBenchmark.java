@@ -0,0 +1,91 @@
+package ink.bgp.hcloader;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding the load config of a class name, for a config made of package prefix rules plus a few other
+ * globs. {@code sequential} is the plain first-match scan, {@code table} is {@link LoadConfigTable}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadConfigLookupBenchmark {
+  private static final String[] VENDORS = {
+      "com/google", "io/netty", "org/apache", "org/slf4j", "kotlin", "org/yaml", "it/unimi", "org/objectweb",
+  };
+
+  private static final String[] NAMES = {
+      "com/google/v3/lib/ImmutableList.class",
+      "io/netty/v9/lib/NioEventLoop.class",
+      "org/slf4j/v100/lib/LoggerFactory.class",
+      "org/bukkit/plugin/java/JavaPlugin.class",
+      "java/lang/String.class",
+      "META-INF/services/java.sql.Driver",
+      "kotlin/v60/lib/collections/CollectionsKt.class",
+      "org/apache/v255/lib/commons/lang3/StringUtils.class",
+  };
+
+  @Param({"16", "256"})
+  public int rules;
+
+  private LoadConfigEntry[] entries;
+  private LoadConfigTable table;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final Set<LoadConfigEntry> sorted = new TreeSet<>();
+    for (int i = 0; i < rules; i++) {
+      final String prefix = VENDORS[i % VENDORS.length] + "/v" + i + "/lib/";
+      sorted.add(LoadConfigEntry.of(i, prefix + "**", (i % 2 == 0) ? LoadPolicy.SELF_FIRST : LoadPolicy.PARENT_FIRST));
+    }
+    sorted.add(LoadConfigEntry.of(rules, "META-INF/services/**", LoadPolicy.SELF_FIRST));
+    sorted.add(LoadConfigEntry.of(rules, "**.yml", LoadPolicy.SELF_ONLY));
+    sorted.add(LoadConfigEntry.of(rules + 1, "**/internal/**", LoadPolicy.PARENT_FIRST));
+    entries = sorted.toArray(new LoadConfigEntry[0]);
+    table = LoadConfigTable.of(sorted);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(8)
+  public void sequential(final @NotNull Blackhole blackhole) {
+    for (final String name : NAMES) {
+      LoadConfigEntry found = LoadConfigEntry.fallback();
+      for (final LoadConfigEntry entry : entries) {
+        if (entry.glob().matches(name)) {
+          found = entry;
+          break;
+        }
+      }
+      blackhole.consume(found);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(8)
+  public void table(final @NotNull Blackhole blackhole) {
+    for (final String name : NAMES) {
+      blackhole.consume(table.find(name));
+    }
+  }
+}
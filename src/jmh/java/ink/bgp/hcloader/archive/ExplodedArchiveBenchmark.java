@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.archive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ink.bgp.hcloader.archive.Archive.Entry;
+
+/**
+ * Repeated enumeration of an exploded plugin directory, walking the tree on every call
+ * and reading the watch index of {@link ExplodedArchive}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExplodedArchiveBenchmark {
+
+	private static final String DELEGATE = "META-INF/hcloader/delegate/";
+
+	private static final int DIRECTORIES = 50;
+
+	private static final int NESTED_JARS = 20;
+
+	@Param({ "1000", "10000" })
+	public int files;
+
+	@Param({ "false", "true" })
+	public boolean watch;
+
+	private Path root;
+
+	private ExplodedArchive archive;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.root = Files.createTempDirectory("hcloader-exploded-benchmark");
+		for (int i = 0; i < this.files; i++) {
+			Path directory = this.root.resolve("com/example/p" + (i % DIRECTORIES));
+			Files.createDirectories(directory);
+			Files.createFile(directory.resolve("C" + i + ".class"));
+		}
+		Path delegate = this.root.resolve(DELEGATE);
+		Files.createDirectories(delegate);
+		for (int i = 0; i < NESTED_JARS; i++) {
+			Files.createFile(delegate.resolve("lib" + i + ".jar"));
+		}
+		this.archive = new ExplodedArchive(this.root.toFile(), true, this.watch);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		this.archive.close();
+		try (Stream<Path> paths = Files.walk(this.root)) {
+			paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public void entries(Blackhole blackhole) {
+		Iterator<Entry> entries = this.archive.iterator();
+		while (entries.hasNext()) {
+			blackhole.consume(entries.next());
+		}
+	}
+
+	@Benchmark
+	public void nestedArchives(Blackhole blackhole) throws IOException {
+		Map<String, Consumer<Archive>> consumers = Collections.singletonMap(DELEGATE, blackhole::consume);
+		this.archive.forEachNestedArchive(consumers);
+	}
+
+}
@@ -0,0 +1,175 @@
+package ink.bgp.hcloader.glob;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks compiling and matching for every matching engine.  Each engine is exercised with the kind of
+ * pattern a delegate config would use, matched against a mix of class and resource names as the class loader
+ * sees them.  The pathological cases force the glob engine to backtrack over every wildcard.
+ * <p>
+ * Run with {@code ./gradlew jmh}, which enables the GC profiler so allocation rates are reported alongside
+ * the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlobPatternBenchmark {
+
+    /**
+     * Names the way {@code LaunchedURLClassLoader} asks for them: class files, resources and service files.
+     */
+    static final String[] NAMES = {
+            "com/google/common/collect/ImmutableList.class",
+            "com/google/common/collect/ImmutableList$Builder.class",
+            "io/netty/channel/nio/NioEventLoop.class",
+            "io/netty/util/internal/PlatformDependent0$1.class",
+            "org/slf4j/LoggerFactory.class",
+            "org/bukkit/plugin/java/JavaPlugin.class",
+            "ink/bgp/hcloader/LaunchedURLClassLoader.class",
+            "java/lang/String.class",
+            "kotlin/collections/CollectionsKt___CollectionsKt.class",
+            "META-INF/MANIFEST.MF",
+            "META-INF/services/java.sql.Driver",
+            "META-INF/versions/9/module-info.class",
+            "assets/minecraft/lang/en_us.json",
+            "plugin.yml",
+            "config.yml",
+            "",
+    };
+
+    static final int NAME_COUNT = 16;
+
+    /**
+     * Deeply nested resource names, none of which contain the searched for segment.
+     */
+    static final String[] LONG_NAMES = {
+            "org/springframework/boot/autoconfigure/web/servlet/error/BasicErrorController$ErrorPageFactory.class",
+            "com/fasterxml/jackson/databind/deser/std/StdDeserializer$DeserializationContextWrapper.class",
+            "software/amazon/awssdk/services/s3/model/transform/PutObjectRequestMarshaller.class",
+            "io/grpc/netty/shaded/io/netty/handler/codec/http2/DefaultHttp2ConnectionDecoder.class",
+            "org/apache/logging/log4j/core/appender/rolling/action/IfLastModified$Builder.class",
+            "kotlinx/coroutines/flow/operators/ChannelFlowTransformLatest$flowCollect$3$1.class",
+            "META-INF/maven/com.google.protobuf/protobuf-java-util/pom.properties",
+            "org/hibernate/validator/constraintvalidators/bv/size/SizeValidatorForArraysOfInt.class",
+            "net/minecraft/world/level/levelgen/structure/templatesystem/StructureProcessor.class",
+            "assets/minecraft/textures/block/polished_blackstone_brick_stairs_inner_left.png",
+            "org/eclipse/jetty/websocket/common/extensions/compress/PerMessageDeflateExtension.class",
+            "com/google/common/collect/ImmutableSortedMap$SerializedForm$Builder$Entries.class",
+            "io/opentelemetry/sdk/metrics/exporter/aggregation/ExplicitBucketHistogramUtils.class",
+            "org/jetbrains/kotlin/backend/common/lower/inline/FunctionInlining$Transformer.class",
+            "META-INF/services/org.apache.logging.log4j.core.util.ContextDataProvider",
+            "org/yaml/snakeyaml/constructor/SafeConstructor$ConstructYamlTimestamp.class",
+    };
+
+    @Param({
+            "EQUAL_TO",
+            "STARTS_WITH",
+            "ENDS_WITH",
+            "CONTAINS",
+            "GLOB",
+            "EVERYTHING",
+            "GLOB_PATHOLOGICAL",
+            "SEGMENTS",
+    })
+    public Engine engine;
+
+    private MatchingEngine matcher;
+
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        matcher = engine.compile();
+        if (!engine.type.isInstance(matcher)) {
+            throw new IllegalStateException(engine + " compiled to " + matcher.getClass().getSimpleName());
+        }
+        names = engine.names != null ? engine.names : NAMES;
+    }
+
+    @Benchmark
+    public MatchingEngine compile() {
+        return engine.compile();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAME_COUNT)
+    public void matches(final Blackhole blackhole) {
+        final MatchingEngine matcher = this.matcher;
+        final String[] names = this.names;
+        for (int i = 0; i < NAME_COUNT; ++i) {
+            blackhole.consume(matcher.matches(names[i]));
+        }
+    }
+
+    public enum Engine {
+        EQUAL_TO("META-INF/MANIFEST.MF", EqualToEngine.class),
+        STARTS_WITH("com/google/common/**", StartsWithEngine.class),
+        ENDS_WITH("**.class", EndsWithEngine.class),
+        CONTAINS("**/internal/**", HorspoolContainsEngine.class),
+        CONTAINS_MATCH_ONE("**/int?rnal/**", ContainsEngine.class),
+        CONTAINS_LONG_NAMES("**/internal/**", HorspoolContainsEngine.class, LONG_NAMES),
+        GLOB("io/netty/**/nio/*.class", GlobEngine.class),
+        EVERYTHING("**", EverythingEngine.class),
+
+        // Every wildcard has to be retried at every position before the final 'b' fails to match
+        GLOB_PATHOLOGICAL("*a*a*a*b", GlobEngine.class, repeat("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa")),
+
+        // The same shape as GLOB, but '*' stays inside one path segment
+        SEGMENTS("io/netty/**/nio/*.class", SegmentGlobEngine.class, GlobPattern.PATH_SEGMENTS);
+
+        final String pattern;
+        final Class<? extends MatchingEngine> type;
+        final String[] names;
+        final int flags;
+
+        Engine(final String pattern, final Class<? extends MatchingEngine> type) {
+            this(pattern, type, null);
+        }
+
+        Engine(final String pattern, final Class<? extends MatchingEngine> type, final int flags) {
+            this(pattern, type, null, flags);
+        }
+
+        Engine(final String pattern, final Class<? extends MatchingEngine> type, final String[] names) {
+            this(pattern, type, names, 0);
+        }
+
+        Engine(final String pattern, final Class<? extends MatchingEngine> type, final String[] names,
+               final int flags) {
+            this.pattern = pattern;
+            this.type = type;
+            this.names = names;
+            this.flags = flags;
+        }
+
+        MatchingEngine compile() {
+            return GlobPattern.compile(pattern, '*', '?', GlobPattern.HANDLE_ESCAPES | flags);
+        }
+
+        private static String[] repeat(final String name) {
+            final String[] names = new String[NAME_COUNT];
+            for (int i = 0; i < NAME_COUNT; ++i) {
+                names[i] = name;
+            }
+            return names;
+        }
+    }
+}
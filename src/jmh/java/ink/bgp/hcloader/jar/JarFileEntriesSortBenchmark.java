@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.jar;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sorting the central directory of a jar by entry name hash code when it is opened,
+ * with the radix sort of {@link JarFileEntries} and the quick sort it replaced. Both
+ * reorder the offsets and positions along with the hash codes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JarFileEntriesSortBenchmark {
+
+	@Param({ "100", "5000", "65535" })
+	public int entries;
+
+	private int[] hashCodes;
+
+	private int[] offsets;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.hashCodes = new int[this.entries];
+		this.offsets = new int[this.entries];
+		int offset = 0;
+		for (int i = 0; i < this.entries; i++) {
+			String name = "com/example/p" + (i % 50) + "/C" + i + ".class";
+			this.hashCodes[i] = new AsciiBytes(name).hashCode();
+			this.offsets[i] = offset;
+			offset += 30 + name.length() + 512;
+		}
+	}
+
+	@Benchmark
+	public int[] radixSort() {
+		int size = this.entries;
+		int[] hashCodes = Arrays.copyOf(this.hashCodes, size);
+		int[] order = JarFileEntries.sort(hashCodes, size);
+		int[] offsets = new int[size];
+		for (int i = 0; i < size; i++) {
+			offsets[i] = this.offsets[order[i]];
+		}
+		int[] positions = new int[size];
+		System.arraycopy(order, 0, positions, 0, size);
+		return positions;
+	}
+
+	@Benchmark
+	public int[] quickSort() {
+		int size = this.entries;
+		int[] hashCodes = Arrays.copyOf(this.hashCodes, size);
+		int[] offsets = Arrays.copyOf(this.offsets, size);
+		int[] positions = new int[size];
+		for (int i = 0; i < size; i++) {
+			positions[i] = i;
+		}
+		quickSort(hashCodes, offsets, positions, 0, size - 1);
+		return positions;
+	}
+
+	private static void quickSort(int[] hashCodes, int[] offsets, int[] positions, int left, int right) {
+		// The sort JarFileEntries used before, sorts all arrays by hash code
+		if (left < right) {
+			int pivot = hashCodes[left + (right - left) / 2];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (hashCodes[i] < pivot) {
+					i++;
+				}
+				while (hashCodes[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(hashCodes, i, j);
+					swap(offsets, i, j);
+					swap(positions, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (left < j) {
+				quickSort(hashCodes, offsets, positions, left, j);
+			}
+			if (right > i) {
+				quickSort(hashCodes, offsets, positions, i, right);
+			}
+		}
+	}
+
+	private static void swap(int[] array, int i, int j) {
+		int temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+
+}
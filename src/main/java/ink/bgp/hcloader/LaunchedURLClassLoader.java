@@ -17,18 +17,22 @@
 package ink.bgp.hcloader;
 
 import ink.bgp.hcloader.archive.Archive;
+import ink.bgp.hcloader.archive.NestedJarIndex;
 import ink.bgp.hcloader.jar.Handler;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.JarURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLConnection;
 import java.security.AccessController;
 import java.security.PrivilegedExceptionAction;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Supplier;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -51,9 +55,27 @@ import java.util.jar.Manifest;
 
   private final Archive rootArchive;
 
-  private final @NotNull Set<LoadConfigEntry> loadConfigEntries = Collections.synchronizedSet(new TreeSet<>());
+  /**
+   * Sorted, never modified snapshot of the load config. Writers publish a new table under
+   * {@link #loadConfigLock} so readers can look up without locking.
+   */
+  private volatile @NotNull LoadConfigTable loadConfigTable = LoadConfigTable.EMPTY;
+  private final Object loadConfigLock = new Object();
   private final Object packageLock = new Object();
 
+  private final @NotNull Deque<@NotNull Archive> managedArchives = new ArrayDeque<>();
+
+  private final @NotNull List<@NotNull ClassLoader> sharedClassLoaders = new CopyOnWriteArrayList<>();
+  private final @NotNull Deque<@NotNull Closeable> sharedClassLoaderReleases = new ArrayDeque<>();
+
+  /**
+   * Every package that can be found through the URLs of this class loader, or {@code null} once a URL was added
+   * without one. Lookups in any other package are answered without probing the URLs. Writers publish a new set
+   * under {@link #packageIndexLock}.
+   */
+  private volatile @Nullable Set<@NotNull String> indexedPackages;
+  private final Object packageIndexLock = new Object();
+
   private volatile DefinePackageCallType definePackageCallType;
 
   /**
@@ -77,15 +99,24 @@ import java.util.jar.Manifest;
   public LaunchedURLClassLoader(Archive rootArchive, URL[] urls, ClassLoader parent) {
     super(urls, parent);
     this.rootArchive = rootArchive;
+    this.indexedPackages = (urls.length == 0) ? Collections.emptySet() : null;
+    if (rootArchive != null) {
+      retainRootJarFile(rootArchive);
+    }
   }
 
   private @NotNull LoadConfigEntry getLoadConfig(final @NotNull String name) {
-    for (final LoadConfigEntry configEntry : loadConfigEntries) {
-      if (configEntry.glob().matches(name)) {
-        return configEntry;
-      }
-    }
-    return LoadConfigEntry.fallback();
+    return loadConfigTable.find(name);
+  }
+
+  /**
+   * @param name a resource name
+   * @return whether the package index rules out that the resource is in any of the URLs
+   */
+  private boolean isIndexedOut(final @NotNull String name) {
+    final Set<String> packages = indexedPackages;
+    // the empty name is the root of every jar, whatever it holds
+    return packages != null && !name.isEmpty() && !packages.contains(NestedJarIndex.getPackageName(name));
   }
 
   private @NotNull ClassLoader parent() {
@@ -103,6 +134,14 @@ import java.util.jar.Manifest;
       final @NotNull String name) {
     final LoadConfigEntry loadConfig = (rawLoadConfig == null) ? getLoadConfig(name) : rawLoadConfig;
     URL url = null;
+    if (loadConfig.policy().sharedFirst()) {
+      for (final ClassLoader sharedClassLoader : sharedClassLoaders) {
+        url = sharedClassLoader.getResource(name);
+        if (url != null) {
+          return url;
+        }
+      }
+    }
     if (loadConfig.policy().selfFirst()) {
       url = findResource0(loadConfig, name);
     }
@@ -124,16 +163,22 @@ import java.util.jar.Manifest;
       final @Nullable LoadConfigEntry rawLoadConfig,
       final @NotNull String name) throws IOException {
     final LoadConfigEntry loadConfig = (rawLoadConfig == null) ? getLoadConfig(name) : rawLoadConfig;
-    final Enumeration<URL>[] enumerations = new Enumeration[3];
+    final List<ClassLoader> sharedClassLoaders = loadConfig.policy().sharedFirst()
+        ? this.sharedClassLoaders : Collections.emptyList();
+    final Enumeration<URL>[] enumerations = new Enumeration[sharedClassLoaders.size() + 3];
 
+    int index = 0;
+    for (final ClassLoader sharedClassLoader : sharedClassLoaders) {
+      enumerations[index++] = sharedClassLoader.getResources(name);
+    }
     if (loadConfig.policy().selfFirst()) {
-      enumerations[0] = findResources0(loadConfig, name);
+      enumerations[index] = findResources0(loadConfig, name);
     }
     if (loadConfig.policy().parentSecond()) {
-      enumerations[1] = findResources0(loadConfig, name);
+      enumerations[index + 1] = findResources0(loadConfig, name);
     }
     if (loadConfig.policy().selfThird()) {
-      enumerations[2] = findResources0(loadConfig, name);
+      enumerations[index + 2] = findResources0(loadConfig, name);
     }
     return new UseFastConnectionExceptionsEnumeration(enumerations);
   }
@@ -147,7 +192,7 @@ import java.util.jar.Manifest;
       final @Nullable LoadConfigEntry rawLoadConfig,
       final @NotNull String name) {
     final LoadConfigEntry loadConfig = (rawLoadConfig == null) ? getLoadConfig(name) : rawLoadConfig;
-    if (loadConfig.policy().selfEnabled()) {
+    if (loadConfig.policy().selfEnabled() && !isIndexedOut(name)) {
       Handler.setUseFastConnectionExceptions(true);
       try {
         return super.findResource(name);
@@ -168,7 +213,7 @@ import java.util.jar.Manifest;
       final @Nullable LoadConfigEntry rawLoadConfig,
       final @NotNull String name) throws IOException {
     final LoadConfigEntry loadConfig = (rawLoadConfig == null) ? getLoadConfig(name) : rawLoadConfig;
-    if (loadConfig.policy().selfEnabled()) {
+    if (loadConfig.policy().selfEnabled() && !isIndexedOut(name)) {
       Handler.setUseFastConnectionExceptions(true);
       try {
         return super.findResources(name);
@@ -207,6 +252,17 @@ import java.util.jar.Manifest;
 
       Class<?> clazz = findLoadedClass(name);
 
+      if (clazz == null && loadConfig.policy().sharedFirst()) {
+        for (final ClassLoader sharedClassLoader : sharedClassLoaders) {
+          try {
+            clazz = sharedClassLoader.loadClass(name);
+            break;
+          } catch (final ClassNotFoundException e) {
+            //
+          }
+        }
+      }
+
       if (clazz == null && loadConfig.policy().selfFirst()) {
         try {
           clazz = findClass0(loadConfig, name);
@@ -249,8 +305,9 @@ import java.util.jar.Manifest;
   private @NotNull Class<?> findClass0(
       final @Nullable LoadConfigEntry rawLoadConfig,
       final @NotNull String name) throws ClassNotFoundException {
-    final LoadConfigEntry loadConfig = (rawLoadConfig == null) ? getLoadConfig(name.replace('.', '/') + ".class") : rawLoadConfig;
-    if (loadConfig.policy().selfEnabled()) {
+    final String classEntryName = name.replace('.', '/') + ".class";
+    final LoadConfigEntry loadConfig = (rawLoadConfig == null) ? getLoadConfig(classEntryName) : rawLoadConfig;
+    if (loadConfig.policy().selfEnabled() && !isIndexedOut(classEntryName)) {
       return super.findClass(name);
     } else {
       throw new ClassNotFoundException(name);
@@ -268,7 +325,7 @@ import java.util.jar.Manifest;
 		final int lastDot = className.lastIndexOf('.');
     if (lastDot >= 0) {
 			final String packageName = className.substring(0, lastDot);
-      if (getPackage(packageName) == null) {
+      if (getPackage(packageName) == null && !isIndexedOut(className.replace('.', '/'))) {
         try {
           definePackage(className, packageName);
         } catch (final IllegalArgumentException ex) {
@@ -389,13 +446,157 @@ import java.util.jar.Manifest;
     }
   }
 
+  /**
+   * Add a URL that is not covered by a package index. From now on every lookup probes the URLs.
+   */
   @Override
   public void addURL(final @NotNull URL url) {
-    super.addURL(url);
+    synchronized (this.packageIndexLock) {
+      super.addURL(url);
+      this.indexedPackages = null;
+    }
+  }
+
+  /**
+   * Add URLs whose content is described by a {@link NestedJarIndex}. As long as only indexed URLs are added,
+   * classes and resources in other packages are not looked up in the URLs at all.
+   *
+   * @param urls the URLs, in lookup order
+   * @param packages every package found in the URLs, see {@link NestedJarIndex#getPackages(String)}
+   */
+  public void addIndexedURLs(final @NotNull List<@NotNull URL> urls, final @NotNull Set<@NotNull String> packages) {
+    synchronized (this.packageIndexLock) {
+      for (final URL url : urls) {
+        super.addURL(url);
+      }
+      final Set<String> indexedPackages = this.indexedPackages;
+      if (indexedPackages != null) {
+        final Set<String> merged = new HashSet<>(indexedPackages);
+        merged.addAll(packages);
+        this.indexedPackages = merged;
+      }
+    }
+  }
+
+  /**
+   * Add a class loader that is shared with other plugins. Classes and resources matched by a
+   * {@link LoadPolicy#SHARED_FIRST} rule are looked up in the shared class loaders, in the
+   * order they were added, before this class loader and its parent.
+   *
+   * @param sharedClassLoader the shared class loader
+   * @param release           releases this class loader's use of the shared class loader when it is closed
+   */
+  public void addSharedClassLoader(final @NotNull ClassLoader sharedClassLoader, final @NotNull Closeable release) {
+    synchronized (this.sharedClassLoaderReleases) {
+      this.sharedClassLoaderReleases.push(release);
+    }
+    sharedClassLoaders.add(sharedClassLoader);
+  }
+
+  /**
+   * Hand the given archive over to this class loader. It will be closed, together with
+   * the root archive, when this class loader is {@link #close() closed}.
+   *
+   * @param archive the archive whose lifetime is bound to this class loader
+   */
+  public void addManagedArchive(final @NotNull Archive archive) {
+    retainRootJarFile(archive);
+    synchronized (this.managedArchives) {
+      this.managedArchives.push(archive);
+    }
+  }
+
+  /**
+   * Close this class loader and release everything it owns: the open URL connections,
+   * its use of the shared class loaders, the managed archives and the root archive, the
+   * cached root jar files behind them and the load config. Archives are closed in the reverse order they were added, so nested
+   * archives go before the archive they came from.
+   */
+  @Override
+  public void close() throws IOException {
+    final List<Throwable> failures = new ArrayList<>();
+    try {
+      super.close();
+    } catch (final IOException ex) {
+      failures.add(ex);
+    }
+    synchronized (this.loadConfigLock) {
+      this.loadConfigTable = LoadConfigTable.EMPTY;
+    }
+    // Shared class loaders are closed by their registry once no plugin uses them anymore
+    sharedClassLoaders.clear();
+    while (true) {
+      final Closeable release;
+      synchronized (this.sharedClassLoaderReleases) {
+        release = this.sharedClassLoaderReleases.poll();
+      }
+      if (release == null) {
+        break;
+      }
+      try {
+        release.close();
+      } catch (final Exception ex) {
+        failures.add(ex);
+      }
+    }
+    while (true) {
+      final Archive archive;
+      synchronized (this.managedArchives) {
+        archive = this.managedArchives.poll();
+      }
+      if (archive == null) {
+        break;
+      }
+      closeArchive(archive, failures);
+    }
+    if (this.rootArchive != null) {
+      closeArchive(this.rootArchive, failures);
+    }
+    if (!failures.isEmpty()) {
+      final IOException ex = new IOException("Unable to close class loader cleanly");
+      for (final Throwable failure : failures) {
+        ex.addSuppressed(failure);
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Hold the cached root jar file behind the given archive until it is closed, so that it is only closed once no
+   * other class loader uses it.
+   */
+  private static void retainRootJarFile(final @NotNull Archive archive) {
+    try {
+      Handler.retainRootJarFile(archive.getUrl());
+    } catch (final MalformedURLException ex) {
+      // releasing it in closeArchive fails the same way and reports it
+    }
+  }
+
+  private void closeArchive(final @NotNull Archive archive, final @NotNull List<@NotNull Throwable> failures) {
+    try {
+      Handler.releaseRootJarFile(archive.getUrl());
+    } catch (final Exception ex) {
+      failures.add(ex);
+    }
+    try {
+      archive.close();
+    } catch (final Exception ex) {
+      failures.add(ex);
+    }
   }
 
   public void addConfig(final @NotNull LoadConfigEntry configEntry) {
-    loadConfigEntries.add(configEntry);
+    addConfigs(Collections.singletonList(configEntry));
+  }
+
+  public void addConfigs(final @NotNull Collection<@NotNull LoadConfigEntry> configEntries) {
+    if (configEntries.isEmpty()) {
+      return;
+    }
+    synchronized (this.loadConfigLock) {
+      this.loadConfigTable = this.loadConfigTable.with(configEntries);
+    }
   }
 
   /**
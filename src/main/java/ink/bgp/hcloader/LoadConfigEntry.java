@@ -1,5 +1,6 @@
 package ink.bgp.hcloader;
 
+import ink.bgp.hcloader.glob.GlobCache;
 import ink.bgp.hcloader.glob.GlobPattern;
 import ink.bgp.hcloader.glob.MatchingEngine;
 import lombok.AccessLevel;
@@ -10,12 +11,31 @@ import org.jetbrains.annotations.NotNull;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * A rule of {@code META-INF/hcloader/delegateconfig}. Public so the gradle plugin writes the file with the same
+ * constants, policies and rule order the runtime reads it with.
+ */
 @Getter
 @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
-/* package-private */ final class LoadConfigEntry implements Comparable<LoadConfigEntry> {
+public final class LoadConfigEntry implements Comparable<LoadConfigEntry> {
   private static final LoadConfigEntry FALLBACK = of(Integer.MIN_VALUE, "**", LoadPolicy.PARENT_FIRST);
 
+  /**
+   * Leading int of a versioned delegateconfig. It is negative so it can never be mistaken for the rule count
+   * that starts the legacy format.
+   */
+  public static final int CONFIG_MAGIC = 0xFE48434C;
+  /**
+   * The rules are written sorted and without duplicates, each with its policy ordinal and compiled glob. The plugin
+   * and the runtime it writes the file for come from the same build, so no other version is ever read.
+   */
+  public static final int CONFIG_VERSION = 3;
+
+  private static final LoadPolicy[] POLICIES = LoadPolicy.values();
+
   private final int priority;
   private final @NotNull String globPattern;
   private final @NotNull MatchingEngine glob;
@@ -67,7 +87,7 @@ import java.io.InputStream;
       final int priority,
       final @NotNull String glob,
       final @NotNull LoadPolicy policy) {
-    return new LoadConfigEntry(priority, glob, GlobPattern.compile(glob), policy);
+    return new LoadConfigEntry(priority, glob, GlobCache.compile(glob), policy);
   }
 
   public static @NotNull LoadConfigEntry fallback() {
@@ -75,39 +95,81 @@ import java.io.InputStream;
   }
 
   public static void load(final @NotNull InputStream rawIn, final @NotNull LaunchedURLClassLoader target) throws IOException {
+    target.addConfigs(read(rawIn));
+  }
+
+  public static @NotNull List<@NotNull LoadConfigEntry> read(final @NotNull InputStream rawIn) throws IOException {
     DataInputStream in = new DataInputStream(rawIn);
+    int header = in.readInt();
+    if (header != CONFIG_MAGIC) {
+      return readLegacy(in, header);
+    }
+    int version = in.readInt();
+    if (version != CONFIG_VERSION) {
+      throw new IOException("unsupported delegateconfig version " + version);
+    }
     int size = in.readInt();
+    final List<LoadConfigEntry> entries = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      final int priority = in.readInt();
+      final int policyOrdinal = in.readUnsignedByte();
+      if (policyOrdinal >= POLICIES.length) {
+        throw new IllegalStateException("unknown load policy ordinal " + policyOrdinal);
+      }
+      final LoadPolicy policy = POLICIES[policyOrdinal];
+      final String glob = in.readUTF();
+      // The compiled form always has to be read to move past it, but an engine cached for the same glob is kept
+      final MatchingEngine engine = GlobCache.intern(
+          glob, '*', '?', GlobPattern.HANDLE_ESCAPES, GlobPattern.readCompiled(in));
+      entries.add(new LoadConfigEntry(priority, glob, engine, policy));
+    }
+    return entries;
+  }
+
+  private static @NotNull List<@NotNull LoadConfigEntry> readLegacy(
+      final @NotNull DataInputStream in,
+      final int size) throws IOException {
+    final List<LoadConfigEntry> entries = new ArrayList<>(Math.max(size, 0));
     for (int i = 0; i < size; i++) {
       final int priority = in.readInt();
       final String glob = in.readUTF();
       final String policyName = in.readUTF();
-      final LoadPolicy policy;
-      switch (policyName) {
-        case "PARENT_FIRST": {
-          policy = LoadPolicy.PARENT_FIRST;
-          break;
-        }
-        case "SELF_FIRST": {
-          policy = LoadPolicy.SELF_FIRST;
-          break;
-        }
-        case "PARENT_ONLY": {
-          policy = LoadPolicy.PARENT_ONLY;
-          break;
-        }
-        case "SELF_ONLY": {
-          policy = LoadPolicy.SELF_ONLY;
-          break;
-        }
-        case "FORBIDDEN": {
-          policy = LoadPolicy.FORBIDDEN;
-          break;
-        }
-        default: {
-          throw new IllegalStateException("unknown load policy " + policyName);
-        }
+      entries.add(of(priority, glob, policy(policyName)));
+    }
+    return entries;
+  }
+
+  private static @NotNull LoadPolicy policy(final @NotNull String policyName) {
+    final LoadPolicy policy;
+    switch (policyName) {
+      case "PARENT_FIRST": {
+        policy = LoadPolicy.PARENT_FIRST;
+        break;
+      }
+      case "SELF_FIRST": {
+        policy = LoadPolicy.SELF_FIRST;
+        break;
+      }
+      case "PARENT_ONLY": {
+        policy = LoadPolicy.PARENT_ONLY;
+        break;
+      }
+      case "SELF_ONLY": {
+        policy = LoadPolicy.SELF_ONLY;
+        break;
+      }
+      case "FORBIDDEN": {
+        policy = LoadPolicy.FORBIDDEN;
+        break;
+      }
+      case "SHARED_FIRST": {
+        policy = LoadPolicy.SHARED_FIRST;
+        break;
+      }
+      default: {
+        throw new IllegalStateException("unknown load policy " + policyName);
       }
-      target.addConfig(of(priority, glob, policy));
     }
+    return policy;
   }
 }
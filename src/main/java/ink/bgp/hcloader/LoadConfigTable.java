@@ -0,0 +1,112 @@
+package ink.bgp.hcloader;
+
+import ink.bgp.hcloader.glob.PrefixRuleSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable, sorted snapshot of the load config of a {@link LaunchedURLClassLoader}. Rules whose glob is a plain
+ * prefix are looked up together through a {@link PrefixRuleSet}, and only the remaining rules that sort before
+ * the best prefix match are tried one by one, so the first matching rule in sort order still wins.
+ */
+/* package-private */ final class LoadConfigTable {
+  private static final int @NotNull [] NO_RULES = new int[0];
+  private static final @NotNull LoadConfigEntry @NotNull [] NO_LOAD_CONFIG_ENTRIES = new LoadConfigEntry[0];
+  public static final @NotNull LoadConfigTable EMPTY = new LoadConfigTable(NO_LOAD_CONFIG_ENTRIES);
+
+  private final @NotNull LoadConfigEntry @NotNull [] entries;
+  private final @NotNull PrefixRuleSet prefixRules;
+  private final int @NotNull [] otherRules;
+
+  private LoadConfigTable(final @NotNull LoadConfigEntry @NotNull [] entries) {
+    this.entries = entries;
+    final String[] prefixes = new String[entries.length];
+    int otherCount = 0;
+    for (int i = 0; i < entries.length; i++) {
+      prefixes[i] = PrefixRuleSet.prefixOf(entries[i].glob());
+      if (prefixes[i] == null) {
+        otherCount++;
+      }
+    }
+    this.prefixRules = PrefixRuleSet.compile(prefixes);
+    this.otherRules = otherCount == 0 ? NO_RULES : new int[otherCount];
+    int otherIndex = 0;
+    for (int i = 0; i < entries.length; i++) {
+      if (prefixes[i] == null) {
+        otherRules[otherIndex++] = i;
+      }
+    }
+  }
+
+  /**
+   * @param entries the rules, already sorted and without duplicates
+   */
+  public static @NotNull LoadConfigTable of(final @NotNull Collection<@NotNull LoadConfigEntry> entries) {
+    return entries.isEmpty() ? EMPTY : new LoadConfigTable(entries.toArray(NO_LOAD_CONFIG_ENTRIES));
+  }
+
+  /**
+   * @param added the rules to add. Rules read from one delegateconfig are already sorted, so they are only sorted
+   *              here if they come in another order
+   * @return a table with the rules of this one and the given ones, or this table if it already has all of them
+   */
+  public @NotNull LoadConfigTable with(final @NotNull Collection<@NotNull LoadConfigEntry> added) {
+    final LoadConfigEntry[] addedEntries = added.toArray(NO_LOAD_CONFIG_ENTRIES);
+    if (!isSorted(addedEntries)) {
+      Arrays.sort(addedEntries);
+    }
+    // merge both sorted runs, dropping rules that are already there
+    final LoadConfigEntry[] merged = new LoadConfigEntry[entries.length + addedEntries.length];
+    int size = 0;
+    int entryIndex = 0;
+    int addedIndex = 0;
+    while (entryIndex < entries.length || addedIndex < addedEntries.length) {
+      final LoadConfigEntry next;
+      if (addedIndex == addedEntries.length
+          || (entryIndex < entries.length && entries[entryIndex].compareTo(addedEntries[addedIndex]) <= 0)) {
+        next = entries[entryIndex++];
+      } else {
+        next = addedEntries[addedIndex++];
+      }
+      if (size == 0 || merged[size - 1].compareTo(next) != 0) {
+        merged[size++] = next;
+      }
+    }
+    if (size == entries.length) {
+      return this;
+    }
+    return new LoadConfigTable(Arrays.copyOf(merged, size));
+  }
+
+  private static boolean isSorted(final @NotNull LoadConfigEntry @NotNull [] entries) {
+    for (int i = 1; i < entries.length; i++) {
+      if (entries[i - 1].compareTo(entries[i]) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public @NotNull LoadConfigEntry @NotNull [] entries() {
+    return entries.clone();
+  }
+
+  public int size() {
+    return entries.length;
+  }
+
+  public @NotNull LoadConfigEntry find(final @NotNull String name) {
+    final int prefixMatch = prefixRules.firstMatch(name);
+    for (final int rule : otherRules) {
+      if (rule > prefixMatch) {
+        break;
+      }
+      if (entries[rule].glob().matches(name)) {
+        return entries[rule];
+      }
+    }
+    return prefixMatch == PrefixRuleSet.NO_MATCH ? LoadConfigEntry.fallback() : entries[prefixMatch];
+  }
+}
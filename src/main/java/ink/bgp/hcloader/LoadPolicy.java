@@ -3,18 +3,23 @@ package ink.bgp.hcloader;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
+/**
+ * Where a class loader looks for a class or resource a {@link LoadConfigEntry} matches, and in which order.
+ */
 @Getter
 @RequiredArgsConstructor
-/* package-private */ enum LoadPolicy {
-  PARENT_FIRST(false, true, true),
-  SELF_FIRST(true, true, false),
-  PARENT_ONLY(false, true, false),
-  SELF_ONLY(true, false, false),
-  FORBIDDEN(false, false, false);
+public enum LoadPolicy {
+  PARENT_FIRST(false, true, true, false),
+  SELF_FIRST(true, true, false, false),
+  PARENT_ONLY(false, true, false, false),
+  SELF_ONLY(true, false, false, false),
+  FORBIDDEN(false, false, false, false),
+  SHARED_FIRST(true, true, false, true);
 
   private final boolean selfFirst;
   private final boolean parentSecond;
   private final boolean selfThird;
+  private final boolean sharedFirst;
 
   public boolean selfEnabled() {
     return selfFirst || selfThird;
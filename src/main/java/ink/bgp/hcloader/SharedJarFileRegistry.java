@@ -0,0 +1,78 @@
+package ink.bgp.hcloader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide registry of the central directory indexes of shared nested jars, see
+ * {@code ink.bgp.hcloader.archive.SharedJarFilePool}.
+ * <p>
+ * Like {@code SharedClassLoaderRegistry}, this class is not relocated: {@code StaticInjector} defines it in the common
+ * parent of the plugin class loaders, and every copy of the runtime only calls it through method handles. The indexes
+ * are made of JDK types only, so the copy of every plugin can build its own jar file from an index another copy
+ * parsed. The first copy defined wins, so its methods must only ever take and return JDK types and keep their
+ * signatures, and it must not have nested classes.
+ */
+public final class SharedJarFileRegistry {
+  /**
+   * The shared indexes and how many jar files use them, by key.
+   */
+  private static final @NotNull Map<@NotNull String, Map.@NotNull Entry<@NotNull Object, @NotNull Integer>> registry =
+      new HashMap<>();
+
+  private SharedJarFileRegistry() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Return the index shared under the given key, if any. Every call that returns an index must be balanced by a call
+   * to {@link #release(String)}.
+   *
+   * @param key the key of the index
+   * @return the shared index, or {@code null} if it must be parsed and {@link #share(String, Object) shared}
+   */
+  public static synchronized @Nullable Object acquire(final @NotNull String key) {
+    final Map.Entry<Object, Integer> shared = registry.get(key);
+    if (shared == null) {
+      return null;
+    }
+    shared.setValue(shared.getValue() + 1);
+    return shared.getKey();
+  }
+
+  /**
+   * Share an index parsed after {@link #acquire(String)} found none. If another caller shared one for the same key in
+   * the meantime, that one is kept. Every call must be balanced by a call to {@link #release(String)}.
+   *
+   * @param key   the key of the index
+   * @param index the parsed index
+   * @return the shared index
+   */
+  public static synchronized @NotNull Object share(final @NotNull String key, final @NotNull Object index) {
+    final Map.Entry<Object, Integer> shared = registry.computeIfAbsent(key,
+        k -> new AbstractMap.SimpleEntry<>(index, 0));
+    shared.setValue(shared.getValue() + 1);
+    return shared.getKey();
+  }
+
+  /**
+   * Release an index returned from {@link #acquire(String)} or {@link #share(String, Object)}. It is dropped once the
+   * last jar file using it released it.
+   *
+   * @param key the key of the index
+   */
+  public static synchronized void release(final @NotNull String key) {
+    final Map.Entry<Object, Integer> shared = registry.get(key);
+    if (shared == null) {
+      return;
+    }
+    shared.setValue(shared.getValue() - 1);
+    if (shared.getValue() <= 0) {
+      registry.remove(key);
+    }
+  }
+}
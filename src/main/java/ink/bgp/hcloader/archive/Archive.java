@@ -21,6 +21,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Spliterator;
 import java.util.Spliterators;
@@ -70,6 +71,33 @@ public interface Archive extends Iterable<Archive.Entry>, AutoCloseable {
 		return nestedArchives.iterator();
 	}
 
+	/**
+	 * Route nested {@link Archive}s to consumers based on the prefix of their entry name.
+	 * Each entry is passed to the consumer of the first prefix that its name starts
+	 * with, entries that match no prefix are skipped. Each consumer receives its archives
+	 * in entry order. Implementations may do this in a single pass over the entries.
+	 * @param consumers the consumers keyed by entry name prefix, checked in iteration
+	 * order
+	 * @throws IOException on IO error
+	 */
+	default void forEachNestedArchive(Map<String, Consumer<Archive>> consumers) throws IOException {
+		String[] prefixes = consumers.keySet().toArray(new String[0]);
+		for (int i = 0; i < prefixes.length; i++) {
+			int index = i;
+			// A glob search filter lets a jar match the prefix on the raw entry names
+			GlobEntryFilter searchFilter = GlobEntryFilter.startingWith(prefixes[i]);
+			EntryFilter includeFilter = (entry) -> {
+				for (int j = 0; j < index; j++) {
+					if (entry.getName().startsWith(prefixes[j])) {
+						return false;
+					}
+				}
+				return searchFilter.matches(entry);
+			};
+			getNestedArchives(searchFilter, includeFilter).forEachRemaining(consumers.get(prefixes[i]));
+		}
+	}
+
 	/**
 	 * Returns nested {@link Archive}s for entries that match the specified filter.
 	 * @param filter the filter used to limit entries
@@ -20,17 +20,31 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URI;
 import java.net.URL;
-import java.util.Arrays;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Deque;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.NoSuchElementException;
-import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.jar.Manifest;
 
 /**
@@ -43,12 +57,14 @@ import java.util.jar.Manifest;
  */
 public class ExplodedArchive implements Archive {
 
-	private static final Set<String> SKIPPED_NAMES = new HashSet<>(Arrays.asList(".", ".."));
-
 	private final File root;
 
 	private final boolean recursive;
 
+	private final boolean watch;
+
+	private volatile WatchIndex index;
+
 	private File manifestFile;
 
 	private Manifest manifest;
@@ -69,11 +85,26 @@ public class ExplodedArchive implements Archive {
 	 * {@code false}.
 	 */
 	public ExplodedArchive(File root, boolean recursive) {
+		this(root, recursive, false);
+	}
+
+	/**
+	 * Create a new {@link ExplodedArchive} instance.
+	 * @param root the root directory
+	 * @param recursive if recursive searching should be used to locate the manifest.
+	 * Defaults to {@code true}, directories with a large tree might want to set this to
+	 * {@code false}.
+	 * @param watch if an in-memory index of the directory should be built once and kept
+	 * current with a {@link WatchService} instead of walking the tree on every call.
+	 * Intended for development layouts where the directory changes while running.
+	 */
+	public ExplodedArchive(File root, boolean recursive, boolean watch) {
 		if (!root.exists() || !root.isDirectory()) {
 			throw new IllegalArgumentException("Invalid source directory " + root);
 		}
 		this.root = root;
 		this.recursive = recursive;
+		this.watch = watch;
 		this.manifestFile = getManifestFile(root);
 	}
 
@@ -99,18 +130,80 @@ public class ExplodedArchive implements Archive {
 
 	@Override
 	public Iterator<Archive> getNestedArchives(EntryFilter searchFilter, EntryFilter includeFilter) throws IOException {
+		if (this.watch) {
+			return new IndexIterator<>(getIndex().entries(), this.recursive, searchFilter, includeFilter,
+					ExplodedArchive::adaptNestedArchive);
+		}
 		return new ArchiveIterator(this.root, this.recursive, searchFilter, includeFilter);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The nested archives of a prefix are the files and directories directly inside the
+	 * directory it names, in name order. When watching they are read from the index
+	 * instead of listing the directory.
+	 */
+	@Override
+	public void forEachNestedArchive(Map<String, Consumer<Archive>> consumers) throws IOException {
+		for (Map.Entry<String, Consumer<Archive>> consumer : consumers.entrySet()) {
+			String prefix = consumer.getKey();
+			if (this.watch) {
+				for (FileEntry entry : getIndex().children(prefix)) {
+					consumer.getValue().accept(adaptNestedArchive(entry));
+				}
+			}
+			else {
+				new ArchiveIterator(new File(this.root, prefix), false, null, (entry) -> true)
+						.forEachRemaining(consumer.getValue());
+			}
+		}
+	}
+
 	@Override
 	@Deprecated
 	public Iterator<Entry> iterator() {
+		if (this.watch) {
+			try {
+				return new IndexIterator<>(getIndex().entries(), this.recursive, null, null, (entry) -> entry);
+			}
+			catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
 		return new EntryIterator(this.root, this.recursive, null, null);
 	}
 
+	private WatchIndex getIndex() throws IOException {
+		WatchIndex index = this.index;
+		if (index == null) {
+			synchronized (this) {
+				index = this.index;
+				if (index == null) {
+					index = new WatchIndex(this.root.toPath());
+					this.index = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	@Override
+	public void close() throws Exception {
+		WatchIndex index = this.index;
+		if (index != null) {
+			index.close();
+		}
+	}
+
+	private static Archive adaptNestedArchive(FileEntry entry) {
+		return (entry.isDirectory() ? new ExplodedArchive(entry.getFile()) : new SimpleJarFileArchive(entry));
+	}
+
 	protected Archive getNestedArchive(Entry entry) throws IOException {
-		File file = ((FileEntry) entry).getFile();
-		return (file.isDirectory() ? new ExplodedArchive(file) : new SimpleJarFileArchive((FileEntry) entry));
+		FileEntry fileEntry = (FileEntry) entry;
+		return (fileEntry.isDirectory() ? new ExplodedArchive(fileEntry.getFile())
+				: new SimpleJarFileArchive(fileEntry));
 	}
 
 	@Override
@@ -129,33 +222,27 @@ public class ExplodedArchive implements Archive {
 	}
 
 	/**
-	 * File based {@link Entry} {@link Iterator}.
+	 * File based {@link Entry} {@link Iterator}. Directories are listed through a
+	 * {@link DirectoryStream}, attributes are read once per file and entry names are
+	 * built from the parent name and the file name.
 	 */
 	private abstract static class AbstractIterator<T> implements Iterator<T> {
 
-		private static final Comparator<File> entryComparator = Comparator.comparing(File::getAbsolutePath);
-
-		private final File root;
-
 		private final boolean recursive;
 
 		private final EntryFilter searchFilter;
 
 		private final EntryFilter includeFilter;
 
-		private final Deque<Iterator<File>> stack = new LinkedList<>();
+		private final Deque<Listing> stack = new ArrayDeque<>();
 
 		private FileEntry current;
 
-		private String rootUrl;
-
 		AbstractIterator(File root, boolean recursive, EntryFilter searchFilter, EntryFilter includeFilter) {
-			this.root = root;
-			this.rootUrl = this.root.toURI().getPath();
 			this.recursive = recursive;
 			this.searchFilter = searchFilter;
 			this.includeFilter = includeFilter;
-			this.stack.add(listFiles(root));
+			this.stack.push(new Listing("", listFiles(root.toPath())));
 			this.current = poll();
 		}
 
@@ -176,48 +263,58 @@ public class ExplodedArchive implements Archive {
 
 		private FileEntry poll() {
 			while (!this.stack.isEmpty()) {
-				while (this.stack.peek().hasNext()) {
-					File file = this.stack.peek().next();
-					if (SKIPPED_NAMES.contains(file.getName())) {
+				Listing listing = this.stack.peek();
+				while (listing.files.hasNext()) {
+					Path file = listing.files.next();
+					FileEntry entry = getFileEntry(listing.prefix, file);
+					if (entry == null) {
 						continue;
 					}
-					FileEntry entry = getFileEntry(file);
-					if (isListable(entry)) {
-						this.stack.addFirst(listFiles(file));
+					if (isListable(entry, this.stack.size() == 1)) {
+						this.stack.push(new Listing(entry.getName(), listFiles(file)));
 					}
 					if (this.includeFilter == null || this.includeFilter.matches(entry)) {
 						return entry;
 					}
+					listing = this.stack.peek();
 				}
-				this.stack.poll();
+				this.stack.pop();
 			}
 			return null;
 		}
 
-		private FileEntry getFileEntry(File file) {
-			URI uri = file.toURI();
-			String name = uri.getPath().substring(this.rootUrl.length());
+		private FileEntry getFileEntry(String prefix, Path file) {
+			BasicFileAttributes attributes;
 			try {
-				return new FileEntry(name, file, uri.toURL());
+				attributes = Files.readAttributes(file, BasicFileAttributes.class);
 			}
-			catch (MalformedURLException ex) {
-				throw new IllegalStateException(ex);
+			catch (IOException ex) {
+				// Removed since it was listed
+				return null;
 			}
+			boolean directory = attributes.isDirectory();
+			String name = prefix + file.getFileName() + (directory ? "/" : "");
+			return new FileEntry(name, file, directory);
 		}
 
-		private boolean isListable(FileEntry entry) {
-			return entry.isDirectory() && (this.recursive || entry.getFile().getParentFile().equals(this.root))
+		private boolean isListable(FileEntry entry, boolean inRoot) {
+			return entry.isDirectory() && (this.recursive || inRoot)
 					&& (this.searchFilter == null || this.searchFilter.matches(entry))
 					&& (this.includeFilter == null || !this.includeFilter.matches(entry));
 		}
 
-		private Iterator<File> listFiles(File file) {
-			File[] files = file.listFiles();
-			if (files == null) {
+		private Iterator<Path> listFiles(Path directory) {
+			List<Path> files = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+				for (Path file : stream) {
+					files.add(file);
+				}
+			}
+			catch (IOException ex) {
 				return Collections.emptyIterator();
 			}
-			Arrays.sort(files, entryComparator);
-			return Arrays.asList(files).iterator();
+			files.sort((left, right) -> left.getFileName().toString().compareTo(right.getFileName().toString()));
+			return files.iterator();
 		}
 
 		@Override
@@ -229,6 +326,22 @@ public class ExplodedArchive implements Archive {
 
 	}
 
+	/**
+	 * The remaining files of a directory along with the entry name prefix to use.
+	 */
+	private static final class Listing {
+
+		private final String prefix;
+
+		private final Iterator<Path> files;
+
+		Listing(String prefix, Iterator<Path> files) {
+			this.prefix = prefix;
+			this.files = files;
+		}
+
+	}
+
 	private static class EntryIterator extends AbstractIterator<Entry> {
 
 		EntryIterator(File root, boolean recursive, EntryFilter searchFilter, EntryFilter includeFilter) {
@@ -250,36 +363,295 @@ public class ExplodedArchive implements Archive {
 
 		@Override
 		protected Archive adapt(FileEntry entry) {
-			File file = entry.getFile();
-			return (file.isDirectory() ? new ExplodedArchive(file) : new SimpleJarFileArchive(entry));
+			return adaptNestedArchive(entry);
+		}
+
+	}
+
+	/**
+	 * In-memory index of every entry below a root directory, kept in traversal order and
+	 * updated from a {@link WatchService}. Pending events are applied before each read so
+	 * enumeration never needs to walk the tree again.
+	 */
+	private static final class WatchIndex implements AutoCloseable {
+
+		private final Path root;
+
+		private final WatchService watchService;
+
+		private final Map<WatchKey, Path> directories = new HashMap<>();
+
+		private final NavigableMap<String, FileEntry> entries = new ConcurrentSkipListMap<>(
+				ExplodedArchive::compareEntryNames);
+
+		WatchIndex(Path root) throws IOException {
+			this.root = root;
+			this.watchService = root.getFileSystem().newWatchService();
+			try {
+				add(root);
+			}
+			catch (IOException ex) {
+				this.watchService.close();
+				throw ex;
+			}
+		}
+
+		Iterator<FileEntry> entries() throws IOException {
+			refresh();
+			return this.entries.values().iterator();
+		}
+
+		List<FileEntry> children(String prefix) throws IOException {
+			refresh();
+			List<FileEntry> children = new ArrayList<>();
+			Map.Entry<String, FileEntry> child = this.entries.higherEntry(prefix);
+			while (child != null && child.getKey().startsWith(prefix)) {
+				String name = child.getKey();
+				children.add(child.getValue());
+				// Skip the entries below a directory child
+				child = this.entries.higherEntry(name.endsWith("/") ? name + Character.MAX_VALUE : name);
+			}
+			return children;
+		}
+
+		private synchronized void refresh() throws IOException {
+			WatchKey key;
+			try {
+				while ((key = this.watchService.poll()) != null) {
+					Path directory = this.directories.get(key);
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							rebuild();
+							return;
+						}
+						if (directory != null) {
+							apply(directory.resolve((Path) event.context()));
+						}
+					}
+					if (!key.reset()) {
+						this.directories.remove(key);
+					}
+				}
+			}
+			catch (ClosedWatchServiceException ex) {
+				// Closed, keep serving the last known state
+			}
+		}
+
+		private void apply(Path path) throws IOException {
+			// Events for the same path may arrive in any combination, so always drop what
+			// we know and take whatever is there now
+			remove(getName(path, false));
+			add(path);
+		}
+
+		private void remove(String name) {
+			this.entries.remove(name);
+			String directoryName = name + "/";
+			this.entries.remove(directoryName);
+			this.entries.subMap(directoryName, true, directoryName + Character.MAX_VALUE, false).clear();
 		}
 
+		private void rebuild() throws IOException {
+			for (WatchKey key : this.directories.keySet()) {
+				key.cancel();
+			}
+			this.directories.clear();
+			this.entries.clear();
+			add(this.root);
+		}
+
+		private void add(Path start) throws IOException {
+			if (!Files.exists(start)) {
+				return;
+			}
+			Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+						throws IOException {
+					WatchKey key;
+					try {
+						key = directory.register(WatchIndex.this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+								StandardWatchEventKinds.ENTRY_DELETE);
+					}
+					catch (IOException ex) {
+						if (Files.isDirectory(directory)) {
+							throw ex;
+						}
+						// Removed or replaced since it was listed
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					WatchIndex.this.directories.put(key, directory);
+					if (!directory.equals(WatchIndex.this.root)) {
+						put(directory, true);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+					put(file, attributes.isDirectory());
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException ex) {
+					// Removed since it was listed
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path directory, IOException ex) {
+					// Removed while it was listed, its delete event drops what was added
+					return FileVisitResult.CONTINUE;
+				}
+
+			});
+		}
+
+		private void put(Path path, boolean directory) {
+			String name = getName(path, directory);
+			this.entries.put(name, new FileEntry(name, path, directory));
+		}
+
+		private String getName(Path path, boolean directory) {
+			StringBuilder name = new StringBuilder();
+			for (Path segment : this.root.relativize(path)) {
+				if (name.length() > 0) {
+					name.append('/');
+				}
+				name.append(segment);
+			}
+			return directory ? name.append('/').toString() : name.toString();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.watchService.close();
+		}
+
+	}
+
+	/**
+	 * Compare entry names in the same order as a depth first traversal that sorts the
+	 * files of each directory by name. The {@code '/'} separator sorts before any other
+	 * character so a directory is followed directly by its own entries.
+	 */
+	private static int compareEntryNames(String left, String right) {
+		int length = Math.min(left.length(), right.length());
+		for (int i = 0; i < length; i++) {
+			char leftChar = left.charAt(i);
+			char rightChar = right.charAt(i);
+			if (leftChar != rightChar) {
+				if (leftChar == '/') {
+					return -1;
+				}
+				if (rightChar == '/') {
+					return 1;
+				}
+				return leftChar - rightChar;
+			}
+		}
+		return left.length() - right.length();
 	}
 
 	/**
-	 * {@link Entry} backed by a File.
+	 * {@link Iterator} over a {@link WatchIndex}. Applies the same search and include
+	 * filter semantics as a tree walk by skipping the entries below any directory that
+	 * the walk would not have descended into.
+	 */
+	private static final class IndexIterator<T> implements Iterator<T> {
+
+		private final Iterator<FileEntry> entries;
+
+		private final boolean recursive;
+
+		private final EntryFilter searchFilter;
+
+		private final EntryFilter includeFilter;
+
+		private final Function<FileEntry, T> adapter;
+
+		private String skippedPrefix;
+
+		private FileEntry current;
+
+		IndexIterator(Iterator<FileEntry> entries, boolean recursive, EntryFilter searchFilter,
+				EntryFilter includeFilter, Function<FileEntry, T> adapter) {
+			this.entries = entries;
+			this.recursive = recursive;
+			this.searchFilter = searchFilter;
+			this.includeFilter = includeFilter;
+			this.adapter = adapter;
+			this.current = poll();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.current != null;
+		}
+
+		@Override
+		public T next() {
+			FileEntry entry = this.current;
+			if (entry == null) {
+				throw new NoSuchElementException();
+			}
+			this.current = poll();
+			return this.adapter.apply(entry);
+		}
+
+		private FileEntry poll() {
+			while (this.entries.hasNext()) {
+				FileEntry entry = this.entries.next();
+				String name = entry.getName();
+				if (this.skippedPrefix != null && name.startsWith(this.skippedPrefix)) {
+					continue;
+				}
+				this.skippedPrefix = null;
+				if (entry.isDirectory() && !isListable(entry)) {
+					this.skippedPrefix = name;
+				}
+				if (this.includeFilter == null || this.includeFilter.matches(entry)) {
+					return entry;
+				}
+			}
+			return null;
+		}
+
+		private boolean isListable(FileEntry entry) {
+			boolean inRoot = entry.getName().indexOf('/') == entry.getName().length() - 1;
+			return (this.recursive || inRoot) && (this.searchFilter == null || this.searchFilter.matches(entry))
+					&& (this.includeFilter == null || !this.includeFilter.matches(entry));
+		}
+
+	}
+
+	/**
+	 * {@link Entry} backed by a {@link Path}. The URL is only created when needed.
 	 */
 	private static class FileEntry implements Entry {
 
 		private final String name;
 
-		private final File file;
+		private final Path path;
 
-		private final URL url;
+		private final boolean directory;
 
-		FileEntry(String name, File file, URL url) {
+		FileEntry(String name, Path path, boolean directory) {
 			this.name = name;
-			this.file = file;
-			this.url = url;
+			this.path = path;
+			this.directory = directory;
 		}
 
 		File getFile() {
-			return this.file;
+			return this.path.toFile();
 		}
 
 		@Override
 		public boolean isDirectory() {
-			return this.file.isDirectory();
+			return this.directory;
 		}
 
 		@Override
@@ -287,8 +659,8 @@ public class ExplodedArchive implements Archive {
 			return this.name;
 		}
 
-		URL getUrl() {
-			return this.url;
+		URL getUrl() throws MalformedURLException {
+			return getFile().toURI().toURL();
 		}
 
 	}
@@ -299,14 +671,19 @@ public class ExplodedArchive implements Archive {
 	 */
 	private static class SimpleJarFileArchive implements Archive {
 
-		private final URL url;
+		private final FileEntry file;
+
+		private URL url;
 
 		SimpleJarFileArchive(FileEntry file) {
-			this.url = file.getUrl();
+			this.file = file;
 		}
 
 		@Override
 		public URL getUrl() throws MalformedURLException {
+			if (this.url == null) {
+				this.url = this.file.getUrl();
+			}
 			return this.url;
 		}
 
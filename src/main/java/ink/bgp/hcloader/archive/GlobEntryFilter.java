@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.archive;
+
+import ink.bgp.hcloader.glob.ByteMatchingEngine;
+import ink.bgp.hcloader.glob.GlobPattern;
+
+/**
+ * {@link Archive.EntryFilter} that matches entry names against a glob pattern. When used
+ * as the search filter of a {@link JarFileArchive} the pattern is matched against the raw
+ * bytes of the central directory, so entries that don't match never become
+ * {@link Archive.Entry Entries} or {@link String Strings}.
+ *
+ * @see GlobPattern
+ */
+public final class GlobEntryFilter implements Archive.EntryFilter {
+
+	private final String pattern;
+
+	private final ByteMatchingEngine engine;
+
+	private GlobEntryFilter(String pattern, ByteMatchingEngine engine) {
+		this.pattern = pattern;
+		this.engine = engine;
+	}
+
+	/**
+	 * Create a new {@link GlobEntryFilter} for the given pattern, using '*' for the
+	 * wildcard and '?' for the match one character.
+	 * @param pattern the glob pattern
+	 * @return the filter
+	 */
+	public static GlobEntryFilter of(String pattern) {
+		return new GlobEntryFilter(pattern, GlobPattern.compileBytes(pattern));
+	}
+
+	/**
+	 * Create a new {@link GlobEntryFilter} that matches the entries whose name starts
+	 * with the given prefix. The prefix is matched literally, glob symbols in it are
+	 * escaped.
+	 * @param prefix the entry name prefix
+	 * @return the filter
+	 */
+	public static GlobEntryFilter startingWith(String prefix) {
+		StringBuilder pattern = new StringBuilder(prefix.length() + 1);
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = prefix.charAt(i);
+			if (c == '*' || c == '?' || c == '\\') {
+				pattern.append('\\');
+			}
+			pattern.append(c);
+		}
+		return of(pattern.append('*').toString());
+	}
+
+	ByteMatchingEngine getEngine() {
+		return this.engine;
+	}
+
+	@Override
+	public boolean matches(Archive.Entry entry) {
+		return this.engine.matches(entry.getName());
+	}
+
+	@Override
+	public String toString() {
+		return "GlobEntryFilter{" + this.pattern + "}";
+	}
+
+}
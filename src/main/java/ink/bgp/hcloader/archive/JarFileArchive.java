@@ -16,25 +16,49 @@
 
 package ink.bgp.hcloader.archive;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.UTFDataFormatException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 import java.util.jar.JarEntry;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
 
 import ink.bgp.hcloader.jar.JarFile;
 
@@ -49,6 +73,28 @@ public class JarFileArchive implements Archive {
 
 	private static final String UNPACK_MARKER = "UNPACK:";
 
+	/**
+	 * Comment prefix of a nested jar entry written without content, the rest of the
+	 * comment names the stored entry with the same content and comment.
+	 */
+	public static final String ALIAS_MARKER = "ALIAS:";
+
+	private static final String UNPACK_DIRECTORY_PROPERTY = "hcloader.unpack.dir";
+
+	private static final String DEFAULT_UNPACK_DIRECTORY_NAME = "hcloader-libs-";
+
+	private static final String VERIFIED_MARKER_SUFFIX = ".verified";
+
+	private static final int MAX_VERIFIED_MARKER_SIZE = 256;
+
+	private static final String SHARED_POOL_PROPERTY = "hcloader.archive.pool";
+
+	private static final boolean SHARED_POOL_ENABLED = Boolean.getBoolean(SHARED_POOL_PROPERTY);
+
+	private static final int PARALLEL_UNPACK_THRESHOLD = 4;
+
+	private static final int PARALLEL_OPEN_THRESHOLD = 2;
+
 	private static final int BUFFER_SIZE = 32 * 1024;
 
 	private static final FileAttribute<?>[] NO_FILE_ATTRIBUTES = {};
@@ -59,11 +105,26 @@ public class JarFileArchive implements Archive {
 	private static final EnumSet<PosixFilePermission> FILE_PERMISSIONS = EnumSet.of(PosixFilePermission.OWNER_READ,
 			PosixFilePermission.OWNER_WRITE);
 
+	private static final EnumSet<PosixFilePermission> FOREIGN_WRITE_PERMISSIONS = EnumSet
+		.of(PosixFilePermission.GROUP_WRITE, PosixFilePermission.OTHERS_WRITE);
+
+	/**
+	 * Unpacked files whose content was checked against their entry by this process, with
+	 * the last modified time they had then.
+	 */
+	private static final Map<Path, FileTime> verifiedUnpackPaths = new ConcurrentHashMap<>();
+
+	private static volatile Path defaultUnpackDirectory;
+
+	private static volatile UserPrincipal currentUser;
+
 	private final JarFile jarFile;
 
 	private URL url;
 
-	private Path tempUnpackDirectory;
+	private String pooledKey;
+
+	private volatile Path unpackDirectory;
 
 	public JarFileArchive(File file) throws IOException {
 		this(file, file.toURI().toURL());
@@ -78,6 +139,31 @@ public class JarFileArchive implements Archive {
 		this.jarFile = jarFile;
 	}
 
+	private JarFileArchive(String pooledKey, File file) throws IOException {
+		this(SharedJarFilePool.open(pooledKey, file));
+		this.pooledKey = pooledKey;
+	}
+
+	/**
+	 * Return whether nested jars are opened through a process-wide pool, enabled with
+	 * {@code -Dhcloader.archive.pool=true}.
+	 * @return if nested jars are pooled
+	 * @see #setSharedJarFileRegistry(Class)
+	 */
+	public static boolean isSharedPoolEnabled() {
+		return SHARED_POOL_ENABLED;
+	}
+
+	/**
+	 * Pool nested jars in the given {@code SharedJarFileRegistry} rather than in the one
+	 * of this class loader, so that they are shared with the other copies of this runtime
+	 * that use it.
+	 * @param registryClass the registry, typically defined in a common parent class loader
+	 */
+	public static void setSharedJarFileRegistry(Class<?> registryClass) {
+		SharedJarFilePool.setRegistry(registryClass);
+	}
+
 	@Override
 	public URL getUrl() throws MalformedURLException {
 		if (this.url != null) {
@@ -93,7 +179,237 @@ public class JarFileArchive implements Archive {
 
 	@Override
 	public Iterator<Archive> getNestedArchives(EntryFilter searchFilter, EntryFilter includeFilter) throws IOException {
-		return new NestedArchiveIterator(this.jarFile.iterator(), searchFilter, includeFilter);
+		List<JarEntry> entries = new ArrayList<>();
+		if (searchFilter instanceof GlobEntryFilter) {
+			// Match the search pattern on the raw entry names and only materialize the hits
+			this.jarFile.forEachMatchingEntry(((GlobEntryFilter) searchFilter).getEngine(), (entry) -> {
+				if (includeFilter == null || includeFilter.matches(new JarFileEntry(entry))) {
+					entries.add(entry);
+				}
+			});
+			for (int i = 0; i < entries.size(); i++) {
+				entries.set(i, resolveAlias(entries.get(i)));
+			}
+		}
+		else {
+			Iterator<Entry> iterator = new EntryIterator(this.jarFile.iterator(), searchFilter, includeFilter);
+			while (iterator.hasNext()) {
+				entries.add(resolveAlias(((JarFileEntry) iterator.next()).getJarEntry()));
+			}
+		}
+		unpackNestedArchives(entries);
+		return new NestedArchiveIterator(entries.iterator(), null, null);
+	}
+
+	@Override
+	public void forEachNestedArchive(Map<String, Consumer<Archive>> consumers) throws IOException {
+		forEachNestedArchive(consumers, null);
+	}
+
+	/**
+	 * Route nested archives to consumers like {@link #forEachNestedArchive(Map)}, but
+	 * look up the nested jars listed in the given index by name instead of scanning all
+	 * entries.
+	 * @param consumers the consumers keyed by entry name prefix, checked in iteration
+	 * order
+	 * @param index the index returned by {@link #getNestedJarIndex()} or {@code null} to
+	 * scan
+	 * @throws IOException on IO error
+	 */
+	public void forEachNestedArchive(Map<String, Consumer<Archive>> consumers, NestedJarIndex index)
+			throws IOException {
+		String[] prefixes = consumers.keySet().toArray(new String[0]);
+		List<JarEntry> entries = new ArrayList<>();
+		List<Consumer<Archive>> targets = new ArrayList<>();
+		forEachEntryWithPrefix(prefixes, index, (entry, prefix) -> {
+			entries.add(entry);
+			targets.add(consumers.get(prefixes[prefix]));
+		});
+		List<Archive> archives = openNestedArchives(entries);
+		for (int i = 0; i < archives.size(); i++) {
+			targets.get(i).accept(archives.get(i));
+		}
+	}
+
+	/**
+	 * Return the {@link NestedJarIndex} of this archive if it has one that is up to date.
+	 * @return the index or {@code null} if there is none, it can't be read, or a nested
+	 * jar it lists is missing, was changed or was added since it was written
+	 * @throws IOException on IO error
+	 */
+	public NestedJarIndex getNestedJarIndex() throws IOException {
+		JarEntry entry = this.jarFile.getJarEntry(NestedJarIndex.ENTRY_NAME);
+		if (entry == null) {
+			return null;
+		}
+		NestedJarIndex index;
+		try (InputStream inputStream = this.jarFile.getInputStream(entry)) {
+			index = NestedJarIndex.read(inputStream);
+		}
+		catch (EOFException | UTFDataFormatException ex) {
+			// Treat a truncated index like a stale one
+			return null;
+		}
+		if (index == null || !index.matches(this::getAliasTarget)) {
+			return null;
+		}
+		Set<String> entryNames = new HashSet<>();
+		this.jarFile.forEachEntryWithPrefix(index.getPrefixes(), (candidate, prefix) -> {
+			if (!candidate.isDirectory()) {
+				entryNames.add(candidate.getName());
+			}
+		});
+		return index.isComplete(entryNames) ? index : null;
+	}
+
+	/**
+	 * Return the entry holding the content of the given entry. A nested jar that was
+	 * included more than once is only stored once at build time, the other copies are
+	 * empty entries whose comment names the stored one.
+	 * @param entry the entry
+	 * @return the entry itself or the entry its alias names
+	 * @throws IOException if the entry the alias names is missing
+	 */
+	private JarEntry resolveAlias(JarEntry entry) throws IOException {
+		if (!entry.getComment().startsWith(ALIAS_MARKER)) {
+			return entry;
+		}
+		String targetName = entry.getComment().substring(ALIAS_MARKER.length());
+		JarEntry target = this.jarFile.getJarEntry(targetName);
+		if (target == null) {
+			throw new IOException("Missing entry '" + targetName + "' aliased by '" + entry.getName() + "' in "
+					+ this.jarFile.getName());
+		}
+		return target;
+	}
+
+	private JarEntry getAliasTarget(String name) throws IOException {
+		JarEntry entry = this.jarFile.getJarEntry(name);
+		return (entry != null) ? resolveAlias(entry) : null;
+	}
+
+	private void forEachEntryWithPrefix(String[] prefixes, NestedJarIndex index, ObjIntConsumer<JarEntry> consumer)
+			throws IOException {
+		if (index == null) {
+			List<JarEntry> entries = new ArrayList<>();
+			List<Integer> entryPrefixes = new ArrayList<>();
+			this.jarFile.forEachEntryWithPrefix(prefixes, (entry, prefix) -> {
+				entries.add(entry);
+				entryPrefixes.add(prefix);
+			});
+			for (int i = 0; i < entries.size(); i++) {
+				consumer.accept(resolveAlias(entries.get(i)), entryPrefixes.get(i));
+			}
+			return;
+		}
+		for (String name : index.getNestedJars("")) {
+			for (int i = 0; i < prefixes.length; i++) {
+				if (name.startsWith(prefixes[i])) {
+					consumer.accept(getAliasTarget(name), i);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Open the nested archives for the given entries. Opening parses and indexes the
+	 * nested central directory so it is done in parallel when there are enough entries,
+	 * the result is always in entry order. If any archive fails to open, those that were
+	 * opened are closed again before the failure is thrown.
+	 * @param entries the entries to open
+	 * @return the nested archives
+	 * @throws IOException on IO error
+	 */
+	private List<Archive> openNestedArchives(List<JarEntry> entries) throws IOException {
+		List<Archive> opened = new ArrayList<>(entries.size());
+		boolean[] abandoned = new boolean[1];
+		try {
+			if (entries.size() < PARALLEL_OPEN_THRESHOLD) {
+				for (JarEntry entry : entries) {
+					opened.add(getNestedArchive(new JarFileEntry(entry)));
+				}
+				return opened;
+			}
+			List<Callable<Archive>> tasks = new ArrayList<>(entries.size());
+			for (JarEntry entry : entries) {
+				tasks.add(() -> {
+					Archive archive = getNestedArchive(new JarFileEntry(entry));
+					synchronized (opened) {
+						if (!abandoned[0]) {
+							opened.add(archive);
+							return archive;
+						}
+					}
+					archive.close();
+					return null;
+				});
+			}
+			return invokeAll(tasks);
+		}
+		catch (IOException | RuntimeException ex) {
+			List<Archive> toClose;
+			synchronized (opened) {
+				abandoned[0] = true;
+				toClose = new ArrayList<>(opened);
+			}
+			for (Archive archive : toClose) {
+				try {
+					archive.close();
+				}
+				catch (Exception closeEx) {
+					ex.addSuppressed(closeEx);
+				}
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Run the given tasks on threads owned by this call, at most one per processor, and
+	 * return their results in task order. The first failure is thrown once every task
+	 * has finished.
+	 * @param <T> the result type
+	 * @param tasks the tasks
+	 * @return the results
+	 * @throws IOException if a task failed with an {@link IOException} or the call was
+	 * interrupted
+	 */
+	private static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+		int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads, (runnable) -> {
+			Thread thread = new Thread(runnable, "hcloader-nested-archive");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<T>> futures = executor.invokeAll(tasks);
+			List<T> results = new ArrayList<>(futures.size());
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for nested archives");
+		}
+		catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+		finally {
+			executor.shutdownNow();
+		}
 	}
 
 	@Override
@@ -104,11 +420,21 @@ public class JarFileArchive implements Archive {
 
 	@Override
 	public void close() throws IOException {
-		this.jarFile.close();
+		try {
+			this.jarFile.close();
+		}
+		finally {
+			if (this.pooledKey != null) {
+				SharedJarFilePool.release(this.pooledKey);
+			}
+		}
 	}
 
 	protected Archive getNestedArchive(Entry entry) throws IOException {
 		JarEntry jarEntry = ((JarFileEntry) entry).getJarEntry();
+		if (isShared(jarEntry)) {
+			return getSharedNestedArchive(jarEntry);
+		}
 		if (jarEntry.getComment().startsWith(UNPACK_MARKER)) {
 			return getUnpackedNestedArchive(jarEntry);
 		}
@@ -122,64 +448,373 @@ public class JarFileArchive implements Archive {
 	}
 
 	private Archive getUnpackedNestedArchive(JarEntry jarEntry) throws IOException {
-		String name = jarEntry.getName();
-		if (name.lastIndexOf('/') != -1) {
-			name = name.substring(name.lastIndexOf('/') + 1);
-		}
-		Path path = getTempUnpackDirectory().resolve(name);
-		if (!Files.exists(path) || Files.size(path) != jarEntry.getSize()) {
+		Path path = getUnpackPath(jarEntry);
+		if (!isUnpacked(jarEntry, path)) {
 			unpack(jarEntry, path);
 		}
 		return new JarFileArchive(path.toFile(), path.toUri().toURL());
 	}
 
-	private Path getTempUnpackDirectory() {
-		if (this.tempUnpackDirectory == null) {
-			Path tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
-			this.tempUnpackDirectory = createUnpackDirectory(tempDirectory);
+	/**
+	 * Return whether the given entry should be opened through the process-wide
+	 * {@link SharedJarFilePool} rather than as a nested jar of this archive.
+	 * @param entry the entry
+	 * @return if the entry is shared
+	 */
+	private boolean isShared(JarEntry entry) {
+		return SHARED_POOL_ENABLED && !entry.isDirectory();
+	}
+
+	/**
+	 * Return the pooled archive for the given entry. It is opened from the unpack cache,
+	 * which is checked against the CRC and size of the entry, and its central directory is
+	 * shared with every other archive of the same unpacked file.
+	 * @param jarEntry the entry
+	 * @return the pooled archive
+	 * @throws IOException on IO error or if the entry cannot be unpacked
+	 */
+	private Archive getSharedNestedArchive(JarEntry jarEntry) throws IOException {
+		Path path = getUnpackPath(jarEntry);
+		if (!isUnpacked(jarEntry, path)) {
+			unpack(jarEntry, path);
 		}
-		return this.tempUnpackDirectory;
+		return new JarFileArchive(SharedJarFilePool.getKey(jarEntry, path), path.toFile());
 	}
 
-	private Path createUnpackDirectory(Path parent) {
-		int attempts = 0;
-		while (attempts++ < 1000) {
-			String fileName = Paths.get(this.jarFile.getName()).getFileName().toString();
-			Path unpackDirectory = parent.resolve(fileName + "-spring-boot-libs-" + UUID.randomUUID());
-			try {
-				createDirectory(unpackDirectory);
-				return unpackDirectory;
+	/**
+	 * Unpack all pending {@code UNPACK:} and shared entries up front and in parallel when there are
+	 * enough of them. Entries that are already in the unpack cache are left alone.
+	 * @param entries the candidate entries
+	 * @throws IOException on IO error
+	 */
+	private void unpackNestedArchives(List<JarEntry> entries) throws IOException {
+		List<JarEntry> pending = new ArrayList<>();
+		for (JarEntry entry : entries) {
+			if ((isShared(entry) || entry.getComment().startsWith(UNPACK_MARKER))
+					&& !isUnpacked(entry, getUnpackPath(entry))) {
+				pending.add(entry);
 			}
-			catch (IOException ex) {
+		}
+		if (pending.size() >= PARALLEL_UNPACK_THRESHOLD) {
+			unpackAll(pending);
+		}
+	}
+
+	/**
+	 * Unpack every nested jar whose name starts with the given prefix into the unpack
+	 * cache, whatever its comment says, and pass the unpacked files to the consumer in
+	 * entry order. Since unpacked files are keyed by CRC and size, identical nested jars
+	 * from different archives are passed as the same path.
+	 * @param prefix the entry name prefix
+	 * @param consumer the consumer of the unpacked files
+	 * @throws IOException on IO error
+	 */
+	public void forEachUnpackedNestedArchive(String prefix, Consumer<Path> consumer) throws IOException {
+		forEachUnpackedNestedArchive(prefix, consumer, null);
+	}
+
+	/**
+	 * Unpack nested jars like {@link #forEachUnpackedNestedArchive(String, Consumer)},
+	 * but look up the nested jars listed in the given index by name instead of scanning
+	 * all entries.
+	 * @param prefix the entry name prefix
+	 * @param consumer the consumer of the unpacked files
+	 * @param index the index returned by {@link #getNestedJarIndex()} or {@code null} to
+	 * scan
+	 * @throws IOException on IO error
+	 */
+	public void forEachUnpackedNestedArchive(String prefix, Consumer<Path> consumer, NestedJarIndex index)
+			throws IOException {
+		List<JarEntry> entries = new ArrayList<>();
+		forEachEntryWithPrefix(new String[] { prefix }, index, (entry, ignored) -> {
+			if (!entry.isDirectory()) {
+				entries.add(entry);
 			}
+		});
+		List<JarEntry> pending = new ArrayList<>();
+		for (JarEntry entry : entries) {
+			if (!isUnpacked(entry, getUnpackPath(entry))) {
+				pending.add(entry);
+			}
+		}
+		if (pending.size() >= PARALLEL_UNPACK_THRESHOLD) {
+			unpackAll(pending);
+		}
+		else {
+			for (JarEntry entry : pending) {
+				unpack(entry, getUnpackPath(entry));
+			}
+		}
+		for (JarEntry entry : entries) {
+			consumer.accept(getUnpackPath(entry));
 		}
-		throw new IllegalStateException("Failed to create unpack directory in directory '" + parent + "'");
 	}
 
-	private void unpack(JarEntry entry, Path path) throws IOException {
-		createFile(path);
-		path.toFile().deleteOnExit();
-		try (InputStream inputStream = this.jarFile.getInputStream(entry);
-				OutputStream outputStream = Files.newOutputStream(path, StandardOpenOption.WRITE,
-						StandardOpenOption.TRUNCATE_EXISTING)) {
+	private void unpackAll(List<JarEntry> pending) throws IOException {
+		List<Callable<Void>> tasks = new ArrayList<>(pending.size());
+		for (JarEntry entry : pending) {
+			tasks.add(() -> {
+				unpack(entry, getUnpackPath(entry));
+				return null;
+			});
+		}
+		invokeAll(tasks);
+	}
+
+	/**
+	 * Return whether the given entry is already unpacked to the given path. A file found
+	 * there is only trusted if it is owned by the current user, not writable by anyone
+	 * else and has the size of the entry. Its content must also have the CRC of the entry,
+	 * which is only read again if the file changed since a private marker next to it
+	 * recorded that it did. Any other file is deleted so it can be unpacked again.
+	 * @param entry the entry
+	 * @param path the unpack path of the entry
+	 * @return if the path holds the content of the entry
+	 * @throws IOException on IO error
+	 */
+	private boolean isUnpacked(JarEntry entry, Path path) throws IOException {
+		if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+			return false;
+		}
+		FileTime lastModifiedTime = Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS);
+		if (lastModifiedTime.equals(verifiedUnpackPaths.get(path))) {
+			return true;
+		}
+		checkPrivate(path.getParent());
+		if (isPrivate(path) && Files.size(path) == entry.getSize()) {
+			if (isMarkedVerified(path, entry.getSize(), lastModifiedTime)) {
+				verifiedUnpackPaths.put(path, lastModifiedTime);
+				return true;
+			}
+			if (getCrc(path) == entry.getCrc()) {
+				markVerified(path, entry.getSize(), lastModifiedTime);
+				return true;
+			}
+		}
+		Files.deleteIfExists(getVerifiedMarkerPath(path));
+		Files.deleteIfExists(path);
+		return false;
+	}
+
+	private static boolean isMarkedVerified(Path path, long size, FileTime lastModifiedTime) throws IOException {
+		Path markerPath = getVerifiedMarkerPath(path);
+		if (!Files.isRegularFile(markerPath, LinkOption.NOFOLLOW_LINKS) || !isPrivate(markerPath)
+				|| Files.size(markerPath) > MAX_VERIFIED_MARKER_SIZE) {
+			return false;
+		}
+		String marker = new String(Files.readAllBytes(markerPath), StandardCharsets.UTF_8);
+		return marker.equals(getVerifiedMarker(size, lastModifiedTime));
+	}
+
+	/**
+	 * Record that the file at the given path has the content of its entry, in this
+	 * process and in a marker next to it for later launches. The marker is only valid
+	 * while the file keeps the given size and last modified time.
+	 * @param path the unpacked file
+	 * @param size the size of the file
+	 * @param lastModifiedTime the last modified time of the file
+	 * @throws IOException on IO error
+	 */
+	private static void markVerified(Path path, long size, FileTime lastModifiedTime) throws IOException {
+		verifiedUnpackPaths.put(path, lastModifiedTime);
+		Path markerPath = getVerifiedMarkerPath(path);
+		Path tempPath = path.resolveSibling(markerPath.getFileName() + "." + UUID.randomUUID() + ".tmp");
+		createFile(tempPath);
+		try {
+			Files.write(tempPath, getVerifiedMarker(size, lastModifiedTime).getBytes(StandardCharsets.UTF_8),
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			Files.move(tempPath, markerPath, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (FileSystemException ex) {
+			// Replaced or locked by another launcher, the file is then checked again next
+			// launch
+		}
+		finally {
+			Files.deleteIfExists(tempPath);
+		}
+	}
+
+	private static Path getVerifiedMarkerPath(Path path) {
+		return path.resolveSibling(path.getFileName() + VERIFIED_MARKER_SUFFIX);
+	}
+
+	private static String getVerifiedMarker(long size, FileTime lastModifiedTime) {
+		return size + " " + lastModifiedTime;
+	}
+
+	private static long getCrc(Path path) throws IOException {
+		CRC32 crc = new CRC32();
+		try (InputStream inputStream = Files.newInputStream(path)) {
 			byte[] buffer = new byte[BUFFER_SIZE];
 			int bytesRead;
 			while ((bytesRead = inputStream.read(buffer)) != -1) {
-				outputStream.write(buffer, 0, bytesRead);
+				crc.update(buffer, 0, bytesRead);
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Return the cache location of the given entry. Locations are keyed by the CRC and
+	 * size of the entry so that they can be shared between launches and launchers.
+	 * @param entry the entry
+	 * @return the path of the unpacked entry
+	 */
+	private Path getUnpackPath(JarEntry entry) throws IOException {
+		String name = entry.getName();
+		if (name.lastIndexOf('/') != -1) {
+			name = name.substring(name.lastIndexOf('/') + 1);
+		}
+		String key = String.format("%08x-%d", entry.getCrc(), entry.getSize());
+		return getUnpackDirectory().resolve(key).resolve(name);
+	}
+
+	private Path getUnpackDirectory() throws IOException {
+		Path unpackDirectory = this.unpackDirectory;
+		if (unpackDirectory == null) {
+			String configured = System.getProperty(UNPACK_DIRECTORY_PROPERTY);
+			if (configured != null) {
+				unpackDirectory = Paths.get(configured);
+				createDirectories(unpackDirectory);
+				checkPrivate(unpackDirectory);
+			}
+			else {
+				unpackDirectory = getDefaultUnpackDirectory();
+			}
+			this.unpackDirectory = unpackDirectory;
+		}
+		return unpackDirectory;
+	}
+
+	/**
+	 * Return the unpack directory shared by all launches of the current user,
+	 * {@code <java.io.tmpdir>/hcloader-libs-<user.name>}. If it can't be created or is
+	 * not private to the current user, for example because another user created it
+	 * first, a new private directory is used for this process instead.
+	 * @return the default unpack directory
+	 * @throws IOException if no private directory can be created
+	 */
+	private static Path getDefaultUnpackDirectory() throws IOException {
+		Path unpackDirectory = defaultUnpackDirectory;
+		if (unpackDirectory != null) {
+			return unpackDirectory;
+		}
+		synchronized (JarFileArchive.class) {
+			if (defaultUnpackDirectory == null) {
+				Path tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+				String user = System.getProperty("user.name", "").replaceAll("[^A-Za-z0-9._-]", "_");
+				unpackDirectory = tempDirectory.resolve(DEFAULT_UNPACK_DIRECTORY_NAME + user);
+				try {
+					createDirectories(unpackDirectory);
+					checkPrivate(unpackDirectory);
+				}
+				catch (IOException ex) {
+					unpackDirectory = Files.createTempDirectory(tempDirectory, DEFAULT_UNPACK_DIRECTORY_NAME,
+							getFileAttributes(tempDirectory.getFileSystem(), DIRECTORY_PERMISSIONS));
+					checkPrivate(unpackDirectory);
+				}
+				defaultUnpackDirectory = unpackDirectory;
+			}
+			return defaultUnpackDirectory;
+		}
+	}
+
+	/**
+	 * Check that the given directory can be trusted with code: it must be a real
+	 * directory, not a link, owned by the current user and not writable by anyone else.
+	 * @param directory the directory
+	 * @throws IOException if the directory can't be trusted
+	 */
+	private static void checkPrivate(Path directory) throws IOException {
+		if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS) || !isPrivate(directory)) {
+			throw new IOException("Unpack directory " + directory
+					+ " must be a directory owned by the current user and not writable by others");
+		}
+	}
+
+	private static boolean isPrivate(Path path) throws IOException {
+		if (!Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).equals(getCurrentUser())) {
+			return false;
+		}
+		if (!path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			return true;
+		}
+		Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+		return Collections.disjoint(permissions, FOREIGN_WRITE_PERMISSIONS);
+	}
+
+	/**
+	 * Return the user running this process, as the owner of a file it creates.
+	 * @return the current user
+	 * @throws IOException on IO error
+	 */
+	private static UserPrincipal getCurrentUser() throws IOException {
+		UserPrincipal user = currentUser;
+		if (user == null) {
+			Path probe = Files.createTempFile("hcloader-owner", ".tmp");
+			try {
+				user = Files.getOwner(probe);
+			}
+			finally {
+				Files.deleteIfExists(probe);
 			}
-			outputStream.flush();
+			currentUser = user;
+		}
+		return user;
+	}
+
+	private void unpack(JarEntry entry, Path path) throws IOException {
+		// Unpack to a private file first and rename it into place once complete so that
+		// concurrent launchers never observe a partially written file
+		Path parent = path.getParent();
+		createDirectories(parent);
+		checkPrivate(parent);
+		Path tempPath = parent.resolve(path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+		createFile(tempPath);
+		try {
+			CRC32 crc = new CRC32();
+			try (InputStream inputStream = this.jarFile.getInputStream(entry);
+					OutputStream outputStream = Files.newOutputStream(tempPath, StandardOpenOption.WRITE,
+							StandardOpenOption.TRUNCATE_EXISTING)) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int bytesRead;
+				while ((bytesRead = inputStream.read(buffer)) != -1) {
+					outputStream.write(buffer, 0, bytesRead);
+					crc.update(buffer, 0, bytesRead);
+				}
+				outputStream.flush();
+			}
+			if (crc.getValue() != entry.getCrc()) {
+				throw new IOException("CRC mismatch unpacking nested archive " + entry.getName());
+			}
+			try {
+				Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (FileSystemException ex) {
+				// Another launcher got there first. Windows also refuses to replace a file
+				// that is open, which is then in use by another launcher. Either way the
+				// file in place is checked like any other
+				if (!isUnpacked(entry, path)) {
+					throw new IOException("Unable to unpack nested archive " + entry.getName() + " to " + path, ex);
+				}
+				return;
+			}
+			markVerified(path, entry.getSize(), Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS));
+		}
+		finally {
+			Files.deleteIfExists(tempPath);
 		}
 	}
 
-	private void createDirectory(Path path) throws IOException {
-		Files.createDirectory(path, getFileAttributes(path.getFileSystem(), DIRECTORY_PERMISSIONS));
+	private static void createDirectories(Path path) throws IOException {
+		Files.createDirectories(path, getFileAttributes(path.getFileSystem(), DIRECTORY_PERMISSIONS));
 	}
 
-	private void createFile(Path path) throws IOException {
+	private static void createFile(Path path) throws IOException {
 		Files.createFile(path, getFileAttributes(path.getFileSystem(), FILE_PERMISSIONS));
 	}
 
-	private FileAttribute<?>[] getFileAttributes(FileSystem fileSystem, EnumSet<PosixFilePermission> ownerReadWrite) {
+	private static FileAttribute<?>[] getFileAttributes(FileSystem fileSystem, EnumSet<PosixFilePermission> ownerReadWrite) {
 		if (!fileSystem.supportedFileAttributeViews().contains("posix")) {
 			return NO_FILE_ATTRIBUTES;
 		}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.archive;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+
+/**
+ * Index of the nested jars of an archive, written at build time to
+ * {@value #ENTRY_NAME}. It records the directories it covers and, for every nested jar
+ * in them, the name, CRC and size of its entry, in the order the entries were written,
+ * and the packages it holds. A package
+ * is the directory part of an entry name, so {@code com/example/Foo.class} is in
+ * {@code com/example}, a directory entry {@code com/example/} is in {@code com},
+ * entries at the root are in the empty package and versioned entries of multi-release
+ * jars are in the package they are looked up in, see
+ * {@link #getEntryPackageName(String)}.
+ * <p>
+ * The index is only used when every nested jar it lists is still in the archive with the
+ * same CRC and size and its directories hold no other entries, see
+ * {@link JarFileArchive#getNestedJarIndex()}.
+ *
+ * @see JarFileArchive
+ */
+public final class NestedJarIndex {
+
+	/**
+	 * The name of the index entry.
+	 */
+	public static final String ENTRY_NAME = "META-INF/hcloader/index";
+
+	/**
+	 * The magic number the index starts with.
+	 */
+	public static final int INDEX_MAGIC = 0xFE484349;
+
+	/**
+	 * The version of the index format, an index of another version is ignored.
+	 */
+	public static final int INDEX_VERSION = 2;
+
+	private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+	private final String[] prefixes;
+
+	private final String[] names;
+
+	private final long[] crcs;
+
+	private final long[] sizes;
+
+	private final List<Set<String>> packages;
+
+	private NestedJarIndex(String[] prefixes, String[] names, long[] crcs, long[] sizes, List<Set<String>> packages) {
+		this.prefixes = prefixes;
+		this.names = names;
+		this.crcs = crcs;
+		this.sizes = sizes;
+		this.packages = packages;
+	}
+
+	/**
+	 * Read an index.
+	 * @param rawIn the input stream
+	 * @return the index or {@code null} if it was written in an unknown format
+	 * @throws IOException on IO error
+	 */
+	static NestedJarIndex read(InputStream rawIn) throws IOException {
+		DataInputStream in = new DataInputStream(rawIn);
+		if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+			return null;
+		}
+		String[] prefixes = new String[in.readInt()];
+		for (int i = 0; i < prefixes.length; i++) {
+			prefixes[i] = in.readUTF();
+		}
+		int size = in.readInt();
+		String[] names = new String[size];
+		long[] crcs = new long[size];
+		long[] sizes = new long[size];
+		List<Set<String>> packages = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			names[i] = in.readUTF();
+			crcs[i] = in.readLong();
+			sizes[i] = in.readLong();
+			int packageCount = in.readInt();
+			Set<String> jarPackages = new HashSet<>(packageCount * 4 / 3 + 1);
+			for (int j = 0; j < packageCount; j++) {
+				jarPackages.add(in.readUTF());
+			}
+			packages.add(Collections.unmodifiableSet(jarPackages));
+		}
+		return new NestedJarIndex(prefixes, names, crcs, sizes, packages);
+	}
+
+	/**
+	 * Return whether every nested jar of this index is in the jar file it was read from
+	 * with the recorded CRC and size.
+	 * @param entries looks up the entry holding the content of a nested jar by name
+	 * @return if the index is up to date
+	 * @throws IOException if the entry of a nested jar can't be looked up
+	 */
+	boolean matches(EntryLookup entries) throws IOException {
+		for (int i = 0; i < this.names.length; i++) {
+			JarEntry entry = entries.get(this.names[i]);
+			if (entry == null || entry.isDirectory() || entry.getCrc() != this.crcs[i]
+					|| entry.getSize() != this.sizes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the entry name prefixes of the directories this index covers.
+	 * @return the prefixes, each ending with a slash
+	 */
+	String[] getPrefixes() {
+		return this.prefixes.clone();
+	}
+
+	/**
+	 * Return whether the given names, those of the file entries of the jar file under
+	 * {@link #getPrefixes() the prefixes} of this index, are exactly the nested jars of
+	 * this index, so that no nested jar was added after it was written.
+	 * @param entryNames the entry names
+	 * @return if no entry is missing from the index
+	 */
+	boolean isComplete(Set<String> entryNames) {
+		if (entryNames.size() != this.names.length) {
+			return false;
+		}
+		for (String name : this.names) {
+			if (!entryNames.contains(name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the names of the nested jars starting with the given prefix, in entry order.
+	 * @param prefix the entry name prefix
+	 * @return the entry names
+	 */
+	public List<String> getNestedJars(String prefix) {
+		List<String> nestedJars = new ArrayList<>();
+		for (String name : this.names) {
+			if (name.startsWith(prefix)) {
+				nestedJars.add(name);
+			}
+		}
+		return nestedJars;
+	}
+
+	/**
+	 * Return the packages held by the nested jars starting with the given prefix.
+	 * @param prefix the entry name prefix
+	 * @return the packages, see {@link #getPackageName(String)}
+	 */
+	public Set<String> getPackages(String prefix) {
+		Set<String> result = new HashSet<>();
+		for (int i = 0; i < this.names.length; i++) {
+			if (this.names[i].startsWith(prefix)) {
+				result.addAll(this.packages.get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the package of a resource name the same way the index records it. A
+	 * resource found by name is either an entry with that name or a directory
+	 * entry with a trailing slash added, and both have the same package.
+	 * @param name the entry or resource name
+	 * @return the package
+	 */
+	public static String getPackageName(String name) {
+		int end = name.length();
+		if (end > 0 && name.charAt(end - 1) == '/') {
+			end--;
+		}
+		int lastSlash = name.lastIndexOf('/', end - 1);
+		return (lastSlash < 0) ? "" : name.substring(0, lastSlash);
+	}
+
+	/**
+	 * Return the package an entry of a nested jar is recorded under. An entry under
+	 * {@code META-INF/versions/<n>/} of a multi-release jar is looked up by the name
+	 * without that prefix, so {@code META-INF/versions/11/com/example/Foo.class} is in
+	 * {@code com/example}. Other entries are in {@link #getPackageName(String) their own
+	 * package}.
+	 * @param entryName the entry name
+	 * @return the package
+	 */
+	public static String getEntryPackageName(String entryName) {
+		if (entryName.startsWith(VERSIONS_PREFIX)) {
+			int versionEnd = entryName.indexOf('/', VERSIONS_PREFIX.length());
+			if (versionEnd > VERSIONS_PREFIX.length() && versionEnd + 1 < entryName.length()
+					&& isVersion(entryName, VERSIONS_PREFIX.length(), versionEnd)) {
+				return getPackageName(entryName.substring(versionEnd + 1));
+			}
+		}
+		return getPackageName(entryName);
+	}
+
+	private static boolean isVersion(String name, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Looks up the entry holding the content of a nested jar.
+	 */
+	@FunctionalInterface
+	interface EntryLookup {
+
+		/**
+		 * Return the entry holding the content of the nested jar with the given name.
+		 * @param name the entry name
+		 * @return the entry or {@code null} if there is none
+		 * @throws IOException on IO error
+		 */
+		JarEntry get(String name) throws IOException;
+
+	}
+
+}
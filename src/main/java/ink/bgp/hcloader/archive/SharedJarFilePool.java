@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+
+import ink.bgp.hcloader.SharedJarFileRegistry;
+import ink.bgp.hcloader.jar.JarFile;
+
+/**
+ * Process-wide pool of the parsed central directories of {@link JarFile JarFiles} opened
+ * from the unpack cache. Every plugin carries its own relocated copy of this runtime, so
+ * the pool is kept by the one {@link SharedJarFileRegistry} defined in the common parent
+ * of the plugin class loaders, and what it shares is the
+ * {@link JarFile#getCentralDirectoryIndex() central directory index} made of JDK types
+ * only. Identical nested jars bundled by different plugins are parsed once, and each copy
+ * opens its own {@link JarFile} from the shared index.
+ * <p>
+ * Indexes are keyed by the CRC and size of the nested entry, which are read from the
+ * central directory of the outer jar so that finding a pooled index needs no hashing, and
+ * by the path and last modified time of the unpacked file the index was parsed from.
+ * Shared indexes are reference counted and dropped once the last archive using them is
+ * closed.
+ *
+ * @see JarFileArchive
+ */
+final class SharedJarFilePool {
+
+	/**
+	 * Version of the layout of {@link JarFile#getCentralDirectoryIndex()}, part of every
+	 * key so that copies of different versions of this runtime never share an index.
+	 */
+	private static final int INDEX_VERSION = 1;
+
+	private static volatile Registry registry;
+
+	private SharedJarFilePool() {
+	}
+
+	/**
+	 * Keep the shared indexes in the given registry rather than in the
+	 * {@link SharedJarFileRegistry} of this class loader.
+	 * @param registryClass a {@link SharedJarFileRegistry}, typically defined in another
+	 * class loader
+	 */
+	static void setRegistry(Class<?> registryClass) {
+		registry = new Registry(registryClass);
+	}
+
+	/**
+	 * Return the key of the index of an unpacked nested jar.
+	 * @param entry the nested jar entry of the outer jar
+	 * @param path the unpacked file of the entry
+	 * @return the key
+	 * @throws IOException if the last modified time of the file cannot be read
+	 */
+	static String getKey(JarEntry entry, Path path) throws IOException {
+		return INDEX_VERSION + ":" + Long.toHexString(entry.getCrc()) + ":" + entry.getSize() + ":"
+				+ Files.getLastModifiedTime(path).toMillis() + ":" + path.toAbsolutePath();
+	}
+
+	/**
+	 * Open the {@link JarFile} of the given unpacked file, from the shared index if there
+	 * is one. Every successful call must be balanced by a call to
+	 * {@link #release(String)}.
+	 * @param key the key of the index
+	 * @param file the unpacked file
+	 * @return the jar file, owned by the caller
+	 * @throws IOException if the jar file cannot be opened
+	 */
+	static JarFile open(String key, File file) throws IOException {
+		Registry registry = getRegistry();
+		Object[] index = (Object[]) registry.acquire(key);
+		try {
+			if (index != null) {
+				return new JarFile(file, index);
+			}
+			JarFile jarFile = new JarFile(file);
+			registry.share(key, jarFile.getCentralDirectoryIndex());
+			return jarFile;
+		}
+		catch (IOException | RuntimeException ex) {
+			if (index != null) {
+				registry.release(key);
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Release an index used by a {@link JarFile} returned from
+	 * {@link #open(String, File)}.
+	 * @param key the key of the index
+	 */
+	static void release(String key) {
+		getRegistry().release(key);
+	}
+
+	private static Registry getRegistry() {
+		Registry registry = SharedJarFilePool.registry;
+		if (registry == null) {
+			registry = new Registry(SharedJarFileRegistry.class);
+			SharedJarFilePool.registry = registry;
+		}
+		return registry;
+	}
+
+	/**
+	 * Method handles of a {@link SharedJarFileRegistry}, which may come from another
+	 * class loader.
+	 */
+	private static final class Registry {
+
+		private final MethodHandle acquire;
+
+		private final MethodHandle share;
+
+		private final MethodHandle release;
+
+		Registry(Class<?> registryClass) {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			try {
+				this.acquire = lookup.findStatic(registryClass, "acquire",
+						MethodType.methodType(Object.class, String.class));
+				this.share = lookup.findStatic(registryClass, "share",
+						MethodType.methodType(Object.class, String.class, Object.class));
+				this.release = lookup.findStatic(registryClass, "release",
+						MethodType.methodType(void.class, String.class));
+			}
+			catch (ReflectiveOperationException ex) {
+				throw new IllegalStateException(registryClass + " is not a shared jar file registry", ex);
+			}
+		}
+
+		Object acquire(String key) {
+			try {
+				return (Object) this.acquire.invokeExact(key);
+			}
+			catch (Throwable ex) {
+				throw rethrow(ex);
+			}
+		}
+
+		void share(String key, Object index) {
+			try {
+				this.share.invoke(key, index);
+			}
+			catch (Throwable ex) {
+				throw rethrow(ex);
+			}
+		}
+
+		void release(String key) {
+			try {
+				this.release.invokeExact(key);
+			}
+			catch (Throwable ex) {
+				throw rethrow(ex);
+			}
+		}
+
+		private static RuntimeException rethrow(Throwable ex) {
+			if (ex instanceof RuntimeException) {
+				return (RuntimeException) ex;
+			}
+			if (ex instanceof Error) {
+				throw (Error) ex;
+			}
+			return new IllegalStateException(ex);
+		}
+
+	}
+
+}
@@ -0,0 +1,22 @@
+package ink.bgp.hcloader.glob;
+
+/**
+ * A matcher which can also match the compiled glob pattern directly against UTF-8 encoded bytes, such as the
+ * entry names in the central directory of a zip file, without first decoding them into a string.
+ */
+public interface ByteMatchingEngine extends MatchingEngine {
+
+
+    /**
+     * Ask if the compiled glob pattern matches the UTF-8 encoded string in the given byte range.
+     * <p>
+     * The result is the same as {@link #matches(String)} on the decoded string.  A match-one character matches
+     * one UTF-16 char, so it takes two of them to match a character outside the basic multilingual plane.
+     *
+     * @param bytes  The bytes holding the input.
+     * @param offset The offset of the first byte of the input.
+     * @param length The number of bytes in the input.
+     * @return {@code true} if the bytes match the glob pattern, {@code false} otherwise.
+     */
+    boolean matches(byte[] bytes, int offset, int length);
+}
@@ -0,0 +1,252 @@
+package ink.bgp.hcloader.glob;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of compiled patterns.  The same rules tend to show up in the configs of one plugin, like the
+ * delegate configs rescanned on every {@code addDelegateFile}, and compiled engines are immutable and thread safe,
+ * so every caller asking for the same pattern text, wildcard and match-one characters and flags can be handed the
+ * same engine.  The least recently used engines are dropped once the cache holds more than
+ * {@value #DEFAULT_MAXIMUM_SIZE} of them, which can be changed with the {@value #MAXIMUM_SIZE_PROPERTY} system
+ * property.
+ * <p>
+ * The cache belongs to one copy of the runtime.  Every plugin gets its own relocated copy, whose engine classes are
+ * not the ones of any other plugin, so engines are never shared between plugins.
+ * <p>
+ * The memory held is accounted for with {@link MatchingEngine#staticSizeInBytes()} when engines are stored and
+ * dropped, a lookup only counts the hit or miss.  See {@link #stats()}.
+ */
+public final class GlobCache {
+
+    /**
+     * System property holding the maximum number of engines to keep.  Zero turns caching off.
+     */
+    public static final String MAXIMUM_SIZE_PROPERTY = "hcloader.glob.cache.size";
+
+    static final int DEFAULT_MAXIMUM_SIZE = 4096;
+
+    private static final int MAXIMUM_SIZE = Math.max(0, Integer.getInteger(MAXIMUM_SIZE_PROPERTY, DEFAULT_MAXIMUM_SIZE));
+
+    // Access ordered so the eldest entry is the least recently used one
+    private static final Map<Key, MatchingEngine> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    // Guarded by the cache
+    private static long evictions;
+    private static long retainedBytes;
+
+    /**
+     * Private constructor as this class contains only static methods.
+     */
+    private GlobCache() {
+    }
+
+    /**
+     * Compile the given glob string the same way as {@link GlobPattern#compile(String)}, or hand out the engine
+     * it was compiled to before.
+     *
+     * @param globPattern   The glob pattern to compile
+     * @return A compiled matching engine.
+     */
+    public static MatchingEngine compile(final String globPattern) {
+        return compile(globPattern, '*', '?', GlobPattern.HANDLE_ESCAPES);
+    }
+
+    /**
+     * Compile the given glob pattern the same way as
+     * {@link GlobPattern#compile(String, char, char, int)}, or hand out the engine it was compiled to before.
+     *
+     * @param globPattern   The glob pattern to compile
+     * @param wildcardChar  The character to use for the wildcard, matching zero or more.
+     * @param matchOneChar  The character to use for matching one.
+     * @param flags         Match flags, as for {@link GlobPattern#compile(String, char, char, int)}
+     * @return A compiled matching engine.
+     * @throws IllegalArgumentException If the globPattern is {@code null}.
+     */
+    public static MatchingEngine compile(final String globPattern,
+                                         final char wildcardChar,
+                                         final char matchOneChar,
+                                         final int flags) {
+        final Key key = key(globPattern, wildcardChar, matchOneChar, flags);
+        final MatchingEngine cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Compile outside of the lock, if two threads race the first one to store its engine wins
+        return store(key, GlobPattern.compile(globPattern, wildcardChar, matchOneChar, flags));
+    }
+
+    /**
+     * Hand out the cached engine for the given glob pattern if there is one, and otherwise cache the given
+     * engine.  This is for engines which were not compiled from the pattern text, like those read back with
+     * {@link GlobPattern#readCompiled(java.io.DataInput)}.
+     *
+     * @param globPattern   The glob pattern the engine was compiled from
+     * @param wildcardChar  The character used for the wildcard.
+     * @param matchOneChar  The character used for matching one.
+     * @param flags         The flags the engine was compiled with
+     * @param engine        The engine compiled from the pattern.
+     * @return The cached engine, or the given engine if there was none.
+     * @throws IllegalArgumentException If the globPattern is {@code null}.
+     */
+    public static MatchingEngine intern(final String globPattern,
+                                        final char wildcardChar,
+                                        final char matchOneChar,
+                                        final int flags,
+                                        final MatchingEngine engine) {
+        final Key key = key(globPattern, wildcardChar, matchOneChar, flags);
+        final MatchingEngine cached = lookup(key);
+        return cached != null ? cached : store(key, engine);
+    }
+
+    /**
+     * Get a snapshot of how well the cache is doing.
+     *
+     * @return The current statistics.
+     */
+    public static Stats stats() {
+        synchronized (cache) {
+            return new Stats(cache.size(), hits.sum(), misses.sum(), evictions, retainedBytes);
+        }
+    }
+
+    private static Key key(final String globPattern, final char wildcardChar, final char matchOneChar,
+                           final int flags) {
+        // Reject null patterns
+        if (globPattern == null) {
+            throw new IllegalArgumentException("Glob Pattern can not be null");
+        }
+        return new Key(globPattern, wildcardChar, matchOneChar, flags);
+    }
+
+    private static MatchingEngine lookup(final Key key) {
+        final MatchingEngine cached;
+        synchronized (cache) {
+            // Also moves the entry to the most recently used end
+            cached = cache.get(key);
+        }
+        (cached != null ? hits : misses).increment();
+        return cached;
+    }
+
+    private static MatchingEngine store(final Key key, final MatchingEngine engine) {
+        if (MAXIMUM_SIZE == 0) {
+            return engine;
+        }
+        synchronized (cache) {
+            final MatchingEngine raced = cache.putIfAbsent(key, engine);
+            if (raced != null) {
+                return raced;
+            }
+            retainedBytes += engine.staticSizeInBytes();
+            if (cache.size() > MAXIMUM_SIZE) {
+                final Map.Entry<Key, MatchingEngine> eldest = cache.entrySet().iterator().next();
+                retainedBytes -= eldest.getValue().staticSizeInBytes();
+                ++evictions;
+                cache.remove(eldest.getKey());
+            }
+            return engine;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the cache statistics.
+     */
+    public static final class Stats {
+
+        private final int size;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long retainedBytes;
+
+        Stats(final int size, final long hits, final long misses, final long evictions, final long retainedBytes) {
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.retainedBytes = retainedBytes;
+        }
+
+        /**
+         * @return The number of engines currently cached.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return The number of times a cached engine was handed out.
+         */
+        public long hits() {
+            return hits;
+        }
+
+        /**
+         * @return The number of times an engine had to be compiled or stored.
+         */
+        public long misses() {
+            return misses;
+        }
+
+        /**
+         * @return The number of engines dropped to stay within the maximum size.
+         */
+        public long evictions() {
+            return evictions;
+        }
+
+        /**
+         * @return The static size in bytes of the engines currently cached.
+         */
+        public long retainedBytes() {
+            return retainedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "GlobCache{size=" + size + ", hits=" + hits + ", misses=" + misses +
+                    ", evictions=" + evictions + ", retainedBytes=" + retainedBytes + "}";
+        }
+    }
+
+    private static final class Key {
+
+        final String pattern;
+        final char wildcardChar;
+        final char matchOneChar;
+        final int flags;
+        final int hash;
+
+        Key(final String pattern, final char wildcardChar, final char matchOneChar, final int flags) {
+            this.pattern = pattern;
+            this.wildcardChar = wildcardChar;
+            this.matchOneChar = matchOneChar;
+            this.flags = flags;
+            this.hash = ((pattern.hashCode() * 31 + wildcardChar) * 31 + matchOneChar) * 31 + flags;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) object;
+            return wildcardChar == that.wildcardChar && matchOneChar == that.matchOneChar &&
+                    flags == that.flags && pattern.equals(that.pattern);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,5 +1,11 @@
 package ink.bgp.hcloader.glob;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This class is responsible for compiling the given pattern into one of the Matching Engines.
  * <p>
@@ -58,6 +64,15 @@ public class GlobPattern {
      */
     public static final int HANDLE_ESCAPES = 0b000010;
 
+    /**
+     * Instructs the compiler to treat '/' as a path separator.  A single wildcard and the match-one character
+     * then never match '/', while a double wildcard matches across segments: as a whole segment (foo/**&#47;bar)
+     * it matches zero or more segments, and at the start or end of a segment (**.class or foo/bar**) it matches
+     * the rest of that segment plus any number of segments.  Anywhere else a double wildcard is folded into a
+     * single one as usual.
+     */
+    public static final int PATH_SEGMENTS = 0b000100;
+
 
     /**
      * Package private constructor as this class contains only static methods.
@@ -89,7 +104,8 @@ public class GlobPattern {
      *                      To turn this feature off pass in the null '\0' character.
      * @param matchOneChar  The character to use for matching one.  Typically Unix uses '?' while SQL uses '_'.
      *                      To turn this feature off pass in the null '\0' character.
-     * @param flags         Match flags, a bit mask that may include {@link #CASE_INSENSITIVE} and {@link #HANDLE_ESCAPES}
+     * @param flags         Match flags, a bit mask that may include {@link #CASE_INSENSITIVE},
+     *                      {@link #HANDLE_ESCAPES} and {@link #PATH_SEGMENTS}
      * @return A newly compiled pattern for matching the wildcard pattern.
      * @throws IllegalArgumentException If the globPattern is {@code null}.
      */
@@ -97,6 +113,81 @@ public class GlobPattern {
                                          final char wildcardChar,
                                          final char matchOneChar,
                                          final int flags) {
+        if (has(flags, PATH_SEGMENTS)) {
+            return compileSegments(globPattern, wildcardChar, matchOneChar, flags);
+        }
+        return parse(globPattern, wildcardChar, matchOneChar, flags).engine();
+    }
+
+    /**
+     * Compile the given glob string using '*' for the wildcard and '?' for the match one character into an
+     * engine that can also match UTF-8 encoded bytes.  Case in-sensitivity and escape handling is also turned on.
+     * <p>
+     * The returned matching engine is thread safe.
+     *
+     * @param globPattern   The glob pattern to compile
+     * @return A compiled matching engine.
+     */
+    public static ByteMatchingEngine compileBytes(final String globPattern) {
+        return compileBytes(globPattern, '*', '?', HANDLE_ESCAPES);
+    }
+
+    /**
+     * Compile the given glob pattern into an engine that can also match UTF-8 encoded bytes.
+     * <p>
+     * The returned matching engine is thread safe.
+     *
+     * @param globPattern   The glob pattern to compile
+     * @param wildcardChar  The character to use for the wildcard, matching zero or more.
+     *                      To turn this feature off pass in the null '\0' character.
+     * @param matchOneChar  The character to use for matching one.
+     *                      To turn this feature off pass in the null '\0' character.
+     * @param flags         Match flags, a bit mask that may include {@link #CASE_INSENSITIVE} and {@link #HANDLE_ESCAPES}
+     * @return A newly compiled pattern for matching the wildcard pattern.
+     * @throws IllegalArgumentException If the globPattern is {@code null}, or {@link #PATH_SEGMENTS} is set
+     *                                  as it is not supported for byte matching.
+     */
+    public static ByteMatchingEngine compileBytes(final String globPattern,
+                                                  final char wildcardChar,
+                                                  final char matchOneChar,
+                                                  final int flags) {
+        if (has(flags, PATH_SEGMENTS)) {
+            throw new IllegalArgumentException("Path segment patterns can not be matched on bytes");
+        }
+        return parse(globPattern, wildcardChar, matchOneChar, flags).byteEngine();
+    }
+
+    /**
+     * Compile the given glob string in the same way as {@link #compile(String)} and write the compiled pattern
+     * to the given output.  The written form has already had escapes processed and wildcards folded, so reading
+     * it back with {@link #readCompiled(DataInput)} only has to pick the matching engine.
+     *
+     * @param globPattern   The glob pattern to compile
+     * @param out           The output the compiled pattern is written to
+     * @throws IOException If the output can not be written to.
+     */
+    public static void writeCompiled(final String globPattern, final DataOutput out) throws IOException {
+        parse(globPattern, '*', '?', HANDLE_ESCAPES).write(out);
+    }
+
+    /**
+     * Read a pattern previously written by {@link #writeCompiled(String, DataOutput)} and return its matching
+     * engine.
+     * <p>
+     * The returned matching engine is thread safe.
+     *
+     * @param in    The input the compiled pattern is read from
+     * @return A compiled matching engine.
+     * @throws IOException If the input can not be read or does not hold a compiled pattern.
+     */
+    public static MatchingEngine readCompiled(final DataInput in) throws IOException {
+        return Parsed.read(in).engine();
+    }
+
+    private static Parsed parse(final String globPattern,
+                                final char wildcardChar,
+                                final char matchOneChar,
+                                final int flags) {
 
         boolean caseInsensitive = has(flags, CASE_INSENSITIVE);
         boolean handleEscapes = has(flags, HANDLE_ESCAPES);
@@ -234,55 +325,275 @@ public class GlobPattern {
             inEscape = false;
         }
 
-        // Index holds our length
-        int length = index;
+        // Index holds our length.  Picking the engine is left to Parsed so a written pattern can skip the work above
+        return new Parsed(lowerCase, upperCase, wildcard, matchOne, index, wildcardCount);
+    }
 
-        // At this point we are done compiling the wildcard pattern into the lowerCase and upperCase arrays.
-        //  But we can inspect the resulting patterns and make some simple optimizations.
+    private static MatchingEngine compileSegments(final String globPattern,
+                                                  final char wildcardChar,
+                                                  final char matchOneChar,
+                                                  final int flags) {
 
-        // If the pattern is empty ... they gave us an empty string so short cut it.
-        if (length == 0) {
-            // specifically: ''
-            return EmptyOnlyEngine.EMPTY_ONLY_ENGINE;
+        // Reject null patterns
+        if (globPattern == null) {
+            throw new IllegalArgumentException("Glob Pattern can not be null");
         }
 
-        // If our pattern is just one character long, and its a wildcard then this will match everything
-        //  so return the Match Everything Engine.
-        if (length == 1 && wildcard[0]) {
-            // specifically: '%'
-            return EverythingEngine.EVERYTHING_ENGINE;
+        // Without wildcards or match-one characters there is nothing that could cross a '/' so the regular
+        //  engines give the same answer
+        Parsed whole = parse(globPattern, wildcardChar, matchOneChar, flags);
+        boolean hasMatchOne = false;
+        for (int i = 0; i < whole.length; ++i) {
+            hasMatchOne |= whole.matchOne[i];
+        }
+        if (whole.wildcardCount == 0 && !hasMatchOne) {
+            return whole.engine();
         }
 
-        // If there are no wildcards then this is a simple equal to engine
-        if (wildcardCount == 0) {
-            // ex: 'foo'
-            return new EqualToEngine(lowerCase, upperCase, matchOne, length);
+        // Split the pattern on every '/' which is not escaped.  A double wildcard at the start or end of a
+        //  segment is split off into a segment of its own so every table entry either matches one segment or
+        //  any number of them
+        boolean handleEscapes = has(flags, HANDLE_ESCAPES);
+        List<String> rawSegments = new ArrayList<>();
+        int segmentStart = 0;
+        for (int i = 0; i <= globPattern.length(); ++i) {
+            if (i == globPattern.length() || globPattern.charAt(i) == '/') {
+                String segment = globPattern.substring(segmentStart, i);
+                int leading = leadingWildcards(segment, wildcardChar);
+                if (leading == segment.length() && leading > 1) {
+                    addAnySegments(rawSegments);
+                } else {
+                    int trailing = trailingWildcards(segment, wildcardChar, handleEscapes);
+                    if (leading > 1) {
+                        addAnySegments(rawSegments);
+                        segment = segment.substring(leading - 1);
+                    }
+                    if (trailing > 1) {
+                        rawSegments.add(segment.substring(0, segment.length() - trailing + 1));
+                        addAnySegments(rawSegments);
+                    } else {
+                        rawSegments.add(segment);
+                    }
+                }
+                segmentStart = i + 1;
+            } else if (handleEscapes && globPattern.charAt(i) == '\\') {
+                // Skip the escaped character
+                ++i;
+            }
         }
 
-        // If there is only one wildcard and it is at either the start or end then return
-        //  an EndsWith or StartsWith engine accordingly
-        if (wildcardCount == 1) {
-            if (wildcard[0]) {
-                // ex: '%foo'
-                return new EndsWithEngine(lowerCase, upperCase, matchOne, length);
+        // Compile every segment on its own
+        int segments = rawSegments.size();
+        byte[] kind = new byte[segments];
+        char[][] lowerCase = new char[segments][];
+        char[][] upperCase = new char[segments][];
+        boolean[][] wildcard = new boolean[segments][];
+        boolean[][] matchOne = new boolean[segments][];
+        int[] length = new int[segments];
+        boolean everything = true;
+        for (int i = 0; i < segments; ++i) {
+            String segment = rawSegments.get(i);
+            if (segment == null) {
+                kind[i] = SegmentGlobEngine.ANY_SEGMENTS;
+                continue;
             }
-            if (wildcard[length-1]) {
-                // ex: 'foo%'
-                return new StartsWithEngine(lowerCase, upperCase, matchOne, length);
+            everything = false;
+            Parsed parsed = parse(segment, wildcardChar, matchOneChar, flags);
+            if (parsed.length == 1 && parsed.wildcard[0]) {
+                kind[i] = SegmentGlobEngine.ANY_ONE;
+            } else {
+                kind[i] = parsed.wildcardCount == 0 ? SegmentGlobEngine.LITERAL : SegmentGlobEngine.GLOB;
+                lowerCase[i] = parsed.lowerCase;
+                upperCase[i] = parsed.upperCase;
+                wildcard[i] = parsed.wildcard;
+                matchOne[i] = parsed.matchOne;
+                length[i] = parsed.length;
             }
         }
 
-        // If there are two wildcards and they are at the start AND end then this is a contains
-        if (wildcardCount == 2 && wildcard[0] && wildcard[length-1]) {
-            // ex: '%foo%'
-            return new ContainsEngine(lowerCase, upperCase, matchOne, length);
+        // Nothing but double wildcards matches everything
+        if (everything) {
+            return EverythingEngine.EVERYTHING_ENGINE;
+        }
+        return new SegmentGlobEngine(kind, lowerCase, upperCase, wildcard, matchOne, length, segments);
+    }
+
+    /**
+     * Double wildcard segments are held as null, and folded in the same way as repeated wildcards.
+     */
+    private static void addAnySegments(final List<String> rawSegments) {
+        if (rawSegments.isEmpty() || rawSegments.get(rawSegments.size() - 1) != null) {
+            rawSegments.add(null);
         }
+    }
 
-        // No other shortcuts so fall back to the glob engine
-        return new GlobEngine(lowerCase, upperCase, wildcard, matchOne, length);
+    private static int leadingWildcards(final String segment, final char wildcardChar) {
+        int count = 0;
+        while (wildcardChar != NULL_CHARACTER && count < segment.length() && segment.charAt(count) == wildcardChar) {
+            ++count;
+        }
+        return count;
+    }
+
+    private static int trailingWildcards(final String segment, final char wildcardChar, final boolean handleEscapes) {
+        int count = 0;
+        int i = segment.length() - 1;
+        while (wildcardChar != NULL_CHARACTER && i >= 0 && segment.charAt(i) == wildcardChar) {
+            ++count;
+            --i;
+        }
+
+        // An odd number of backslashes before the run escapes its first wildcard
+        if (handleEscapes && count > 0) {
+            int backslashes = 0;
+            while (i >= 0 && segment.charAt(i) == '\\') {
+                ++backslashes;
+                --i;
+            }
+            if (backslashes % 2 == 1) {
+                --count;
+            }
+        }
+        return count;
     }
 
     private static boolean has(int flags, int feature) {
         return (flags & feature) != 0;
     }
+
+    /**
+     * The pattern after escape handling and wildcard folding, before a matching engine has been picked.
+     */
+    private static final class Parsed {
+
+        // Per character markers used by the written form
+        static final byte LITERAL = 0;
+        static final byte WILDCARD = 1;
+        static final byte MATCH_ONE = 2;
+
+        final char[] lowerCase;
+        final char[] upperCase;
+        final boolean[] wildcard;
+        final boolean[] matchOne;
+        final int length;
+        final int wildcardCount;
+
+        Parsed(final char[] lowerCase, final char[] upperCase,
+               final boolean[] wildcard, final boolean[] matchOne,
+               final int length, final int wildcardCount) {
+            this.lowerCase = lowerCase;
+            this.upperCase = upperCase;
+            this.wildcard = wildcard;
+            this.matchOne = matchOne;
+            this.length = length;
+            this.wildcardCount = wildcardCount;
+        }
+
+        void write(final DataOutput out) throws IOException {
+            // Upper case is only written when it differs somewhere, which happens for case-insensitive
+            //  patterns and for unicode escapes of cased characters
+            boolean distinctCase = false;
+            for (int i = 0; i < length; ++i) {
+                if (lowerCase[i] != upperCase[i]) {
+                    distinctCase = true;
+                    break;
+                }
+            }
+            out.writeBoolean(distinctCase);
+            out.writeInt(length);
+            for (int i = 0; i < length; ++i) {
+                out.writeByte(wildcard[i] ? WILDCARD : matchOne[i] ? MATCH_ONE : LITERAL);
+                out.writeChar(lowerCase[i]);
+                if (distinctCase) {
+                    out.writeChar(upperCase[i]);
+                }
+            }
+        }
+
+        static Parsed read(final DataInput in) throws IOException {
+            boolean distinctCase = in.readBoolean();
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Bad compiled glob length: " + length);
+            }
+            char[] lowerCase = new char[length];
+            char[] upperCase = distinctCase ? new char[length] : lowerCase;
+            boolean[] wildcard = new boolean[length];
+            boolean[] matchOne = new boolean[length];
+            int wildcardCount = 0;
+            for (int i = 0; i < length; ++i) {
+                byte kind = in.readByte();
+                if (kind == WILDCARD) {
+                    wildcard[i] = true;
+                    ++wildcardCount;
+                } else if (kind == MATCH_ONE) {
+                    matchOne[i] = true;
+                } else if (kind != LITERAL) {
+                    throw new IOException("Bad compiled glob marker: " + kind);
+                }
+                lowerCase[i] = in.readChar();
+                if (distinctCase) {
+                    upperCase[i] = in.readChar();
+                }
+            }
+            return new Parsed(lowerCase, upperCase, wildcard, matchOne, length, wildcardCount);
+        }
+
+        ByteMatchingEngine byteEngine() {
+            return Utf8GlobEngine.create(engine(), lowerCase, upperCase, wildcard, matchOne, length);
+        }
+
+        MatchingEngine engine() {
+            // At this point we are done compiling the wildcard pattern into the lowerCase and upperCase arrays.
+            //  But we can inspect the resulting patterns and make some simple optimizations.
+
+            // If the pattern is empty ... they gave us an empty string so short cut it.
+            if (length == 0) {
+                // specifically: ''
+                return EmptyOnlyEngine.EMPTY_ONLY_ENGINE;
+            }
+
+            // If our pattern is just one character long, and its a wildcard then this will match everything
+            //  so return the Match Everything Engine.
+            if (length == 1 && wildcard[0]) {
+                // specifically: '%'
+                return EverythingEngine.EVERYTHING_ENGINE;
+            }
+
+            // If there are no wildcards then this is a simple equal to engine
+            if (wildcardCount == 0) {
+                // ex: 'foo'
+                return new EqualToEngine(lowerCase, upperCase, matchOne, length);
+            }
+
+            // If there is only one wildcard and it is at either the start or end then return
+            //  an EndsWith or StartsWith engine accordingly
+            if (wildcardCount == 1) {
+                if (wildcard[0]) {
+                    // ex: '%foo'
+                    return new EndsWithEngine(lowerCase, upperCase, matchOne, length);
+                }
+                if (wildcard[length-1]) {
+                    // ex: 'foo%'
+                    return new StartsWithEngine(lowerCase, upperCase, matchOne, length);
+                }
+            }
+
+            // If there are two wildcards and they are at the start AND end then this is a contains
+            if (wildcardCount == 2 && wildcard[0] && wildcard[length-1]) {
+                // Without match-one characters we can search for the middle with skips
+                for (int i = 1; i < length - 1; ++i) {
+                    if (matchOne[i]) {
+                        // ex: '%f_o%'
+                        return new ContainsEngine(lowerCase, upperCase, matchOne, length);
+                    }
+                }
+                // ex: '%foo%'
+                return new HorspoolContainsEngine(lowerCase, upperCase, length);
+            }
+
+            // No other shortcuts so fall back to the glob engine
+            return new GlobEngine(lowerCase, upperCase, wildcard, matchOne, length);
+        }
+    }
 }
@@ -0,0 +1,105 @@
+package ink.bgp.hcloader.glob;
+
+/**
+ * This class is used in place of {@link ContainsEngine} when the pattern is a wildcard, a run of plain characters
+ * and another wildcard, with no match-one characters in between.  The characters are searched for with the
+ * Boyer-Moore-Horspool algorithm: the pattern is lined up against the input and compared from its last character
+ * backwards, and on a mismatch the input character under the last pattern character decides how far the pattern
+ * can safely slide.  For file names this usually skips ahead by close to the whole pattern length, so most of
+ * the input is never looked at.
+ * <p>
+ * The skip table is folded in two ways to keep it small.  Both the lower and upper case version of every pattern
+ * character are entered, so case in-sensitive patterns skip by the nearer of the two, and characters are bucketed
+ * by their low byte.  Characters sharing a bucket share the smallest skip, which can only make us slide less than
+ * we could have, never too far.
+ */
+class HorspoolContainsEngine implements MatchingEngine {
+
+    // Number of buckets in the skip table, must be a power of two
+    static final int SKIP_TABLE_SIZE = 256;
+
+    final char[] lowerCase;
+    final char[] upperCase;
+    final int length;
+    final int[] skip;
+
+    /**
+     * Constructor for a Horspool Contains Engine Matcher.
+     *
+     * @param lowerCase The version of our pattern which should be used for lower case checking.  (The
+     *                  actual contents may not be lower case depending on the case sensitivity flag.)
+     * @param upperCase The version of our pattern which should be used for upper case checking.  (The
+     *                  actual contents may not be upper case depending on the case sensitivity flag.)
+     * @param length    The length of the lowerCase and upperCase arrays, including the leading and trailing
+     *                  wildcards.  The built-in array lengths can not be used directly as the actual lengths
+     *                  may have reduced during compilation.  (Due to escape handling, or wildcard folding.)
+     */
+    protected HorspoolContainsEngine(final char[] lowerCase, final char[] upperCase, final int length) {
+
+        // Drop the leading and trailing wildcards, we only ever search for what is between them
+        this.length = length - 2;
+        this.lowerCase = new char[this.length];
+        this.upperCase = new char[this.length];
+        System.arraycopy(lowerCase, 1, this.lowerCase, 0, this.length);
+        System.arraycopy(upperCase, 1, this.upperCase, 0, this.length);
+
+        // By default a character which is not in the pattern lets us slide past it entirely.  The last pattern
+        //  character is left out as it is the one we are lining up on.
+        this.skip = new int[SKIP_TABLE_SIZE];
+        for (int i = 0; i < SKIP_TABLE_SIZE; ++i) {
+            this.skip[i] = this.length;
+        }
+        for (int i = 0; i < this.length - 1; ++i) {
+            this.skip[this.lowerCase[i] & (SKIP_TABLE_SIZE - 1)] = this.length - 1 - i;
+            this.skip[this.upperCase[i] & (SKIP_TABLE_SIZE - 1)] = this.length - 1 - i;
+        }
+    }
+
+
+    @Override
+    public boolean matches(final String string) {
+
+        // The purest point of view where nothing can match null
+        if (string == null) {
+            return false;
+        }
+
+        final int last = length - 1;
+        final int stringLength = string.length();
+
+        // charsIndex is the input position the last pattern character is lined up with
+        int charsIndex = last;
+        while (charsIndex < stringLength) {
+            final char c = string.charAt(charsIndex);
+
+            // Compare backwards from the last character, which is also the one the skip is looked up with
+            int patternIndex = last;
+            int index = charsIndex;
+            char current = c;
+            while (current == lowerCase[patternIndex] || current == upperCase[patternIndex]) {
+                if (patternIndex == 0) {
+                    return true;
+                }
+                current = string.charAt(--index);
+                --patternIndex;
+            }
+
+            charsIndex += skip[c & (SKIP_TABLE_SIZE - 1)];
+        }
+        return false;
+    }
+
+
+    @Override
+    public int matchingSizeInBytes() {
+        // A running HorspoolContainsEngine requires six integers
+        return Integer.BYTES * 6 + staticSizeInBytes();
+    }
+
+
+    @Override
+    public int staticSizeInBytes() {
+        // Lower and upper cases are the same size, plus the skip table
+        return lowerCase.length * Character.BYTES * 2 + SKIP_TABLE_SIZE * Integer.BYTES + Integer.BYTES;
+    }
+}
@@ -0,0 +1,186 @@
+package ink.bgp.hcloader.glob;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Matches a string against an ordered list of prefix rules at once.  Rules like 'com/vendor/lib/*' compile to a
+ * {@link StartsWithEngine} each, and checking them one after the other costs one comparison per rule.  Here all
+ * the prefixes are merged into a single character trie where every node remembers the first rule (the one with
+ * the lowest index) ending at it, so finding the first matching rule is one walk down the trie no matter how
+ * many rules there are.
+ * <p>
+ * The trie is flattened into arrays once it is built.  The edges of each node are sorted by character so they
+ * can be binary searched, and matching allocates nothing.
+ */
+public final class PrefixRuleSet {
+
+    /**
+     * Returned by {@link #firstMatch(String)} when no rule matches.  It is larger than any rule index so it can be
+     * compared against the index of a rule directly.
+     */
+    public static final int NO_MATCH = Integer.MAX_VALUE;
+
+    // Per node: the first rule ending here, and where its edges start in the edge arrays
+    final int[] firstRule;
+    final int[] edgeStart;
+    final int[] edgeEnd;
+
+    // Per edge: the character and the node it leads to
+    final char[] edgeChar;
+    final int[] edgeTarget;
+
+    private PrefixRuleSet(final int[] firstRule, final int[] edgeStart, final int[] edgeEnd,
+                          final char[] edgeChar, final int[] edgeTarget) {
+        this.firstRule = firstRule;
+        this.edgeStart = edgeStart;
+        this.edgeEnd = edgeEnd;
+        this.edgeChar = edgeChar;
+        this.edgeTarget = edgeTarget;
+    }
+
+    /**
+     * Get the prefix a compiled pattern matches, if it is a pure prefix rule.  That is a pattern with a single
+     * wildcard at the very end and no match-one characters, where case does not matter or the prefix has no
+     * characters with case, or the pattern which is just a wildcard.
+     *
+     * @param engine A compiled matching engine.
+     * @return The prefix, or {@code null} if the engine can not be expressed as a prefix.
+     */
+    public static String prefixOf(final MatchingEngine engine) {
+        if (engine instanceof EverythingEngine) {
+            return "";
+        }
+        if (!(engine instanceof StartsWithEngine)) {
+            return null;
+        }
+        final StartsWithEngine startsWith = (StartsWithEngine) engine;
+        final int length = startsWith.length - 1;
+        for (int i = 0; i < length; ++i) {
+            if (startsWith.matchOne[i] || startsWith.lowerCase[i] != startsWith.upperCase[i]) {
+                return null;
+            }
+        }
+        return new String(startsWith.lowerCase, 0, length);
+    }
+
+    /**
+     * Build a rule set out of the given prefixes.  The index of a prefix in the array is its rule index, and a
+     * {@code null} entry leaves that rule out.  When several rules match, the one with the lowest index wins.
+     *
+     * @param prefixes The prefix of every rule, as returned from {@link #prefixOf(MatchingEngine)}.
+     * @return The rule set.
+     */
+    public static PrefixRuleSet compile(final String[] prefixes) {
+
+        // Build the trie out of nodes first, ...
+        final Node root = new Node();
+        int nodes = 1;
+        for (int rule = 0; rule < prefixes.length; ++rule) {
+            final String prefix = prefixes[rule];
+            if (prefix == null) {
+                continue;
+            }
+            Node node = root;
+            for (int i = 0; i < prefix.length(); ++i) {
+                Node child = node.children.get(prefix.charAt(i));
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(prefix.charAt(i), child);
+                    ++nodes;
+                }
+                node = child;
+            }
+            node.firstRule = Math.min(node.firstRule, rule);
+        }
+
+        // ... then number the nodes breadth first and lay them out in arrays.  Edge targets are known before
+        //  the target is visited as the queue hands out numbers in the same order
+        final int[] firstRule = new int[nodes];
+        final int[] edgeStart = new int[nodes];
+        final int[] edgeEnd = new int[nodes];
+        final char[] edgeChar = new char[nodes - 1];
+        final int[] edgeTarget = new int[nodes - 1];
+        final Deque<Node> queue = new ArrayDeque<>();
+        queue.add(root);
+        int index = 0;
+        int edges = 0;
+        while (!queue.isEmpty()) {
+            final Node node = queue.poll();
+            firstRule[index] = node.firstRule;
+            edgeStart[index] = edges;
+            for (final Map.Entry<Character, Node> child : node.children.entrySet()) {
+                edgeChar[edges] = child.getKey();
+                edgeTarget[edges] = edges + 1;
+                ++edges;
+                queue.add(child.getValue());
+            }
+            edgeEnd[index] = edges;
+            ++index;
+        }
+        return new PrefixRuleSet(firstRule, edgeStart, edgeEnd, edgeChar, edgeTarget);
+    }
+
+    /**
+     * Find the first rule whose prefix the string starts with.
+     *
+     * @param string The input string we are checking.
+     * @return The lowest matching rule index, or {@link #NO_MATCH}.
+     */
+    public int firstMatch(final String string) {
+
+        // The purest point of view where nothing can match null
+        if (string == null) {
+            return NO_MATCH;
+        }
+
+        int node = 0;
+        int best = firstRule[0];
+        final int length = string.length();
+        for (int i = 0; i < length; ++i) {
+            final int edge = findEdge(node, string.charAt(i));
+            if (edge < 0) {
+                break;
+            }
+            node = edgeTarget[edge];
+            if (firstRule[node] < best) {
+                best = firstRule[node];
+            }
+        }
+        return best;
+    }
+
+    private int findEdge(final int node, final char c) {
+        int low = edgeStart[node];
+        int high = edgeEnd[node] - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final char middleChar = edgeChar[middle];
+            if (middleChar < c) {
+                low = middle + 1;
+            } else if (middleChar > c) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the static size of the rule set in bytes.
+     *
+     * @return Static size of the rule set in bytes.
+     */
+    public int staticSizeInBytes() {
+        // Three integers per node, a character and an integer per edge
+        return firstRule.length * Integer.BYTES * 3 + edgeChar.length * (Character.BYTES + Integer.BYTES);
+    }
+
+    private static final class Node {
+        final Map<Character, Node> children = new TreeMap<>();
+        int firstRule = NO_MATCH;
+    }
+}
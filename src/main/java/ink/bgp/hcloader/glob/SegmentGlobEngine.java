@@ -0,0 +1,210 @@
+package ink.bgp.hcloader.glob;
+
+/**
+ * Engine for patterns compiled with {@link GlobPattern#PATH_SEGMENTS}.  The pattern is split on '/' into a table
+ * of segments, each of which matches exactly one '/' separated segment of the input, except for the double
+ * wildcard segment which matches zero or more whole segments.  Inside a segment the wildcard and match-one
+ * characters never match '/'.
+ * <p>
+ * The table is walked with the same two pointer star-backtrack algorithm as {@link GlobEngine}, only one segment
+ * at a time instead of one character at a time.  As every other segment eats exactly one input segment a single
+ * save point is still enough, and a literal segment that does not match rejects the input without looking at
+ * the rest of it.
+ */
+class SegmentGlobEngine implements MatchingEngine {
+
+    // Segment kinds
+    static final byte LITERAL = 0;
+    static final byte GLOB = 1;
+    static final byte ANY_ONE = 2;
+    static final byte ANY_SEGMENTS = 3;
+
+    // Used to identify when there is no double wildcard to jump back to
+    static final int NO_SAVE_POINT = -1;
+
+    final byte[] kind;
+    final char[][] lowerCase;
+    final char[][] upperCase;
+    final boolean[][] wildcard;
+    final boolean[][] matchOne;
+    final int[] length;
+    final int segments;
+
+    /**
+     * Constructor for a Segment Glob Engine Matcher.
+     *
+     * @param kind      The kind of each segment, one of {@link #LITERAL}, {@link #GLOB}, {@link #ANY_ONE} or
+     *                  {@link #ANY_SEGMENTS}.
+     * @param lowerCase The version of each segment which should be used for lower case checking.  (The actual
+     *                  contents may not be lower case depending on the case sensitivity flag.)
+     * @param upperCase The version of each segment which should be used for upper case checking.  (The actual
+     *                  contents may not be upper case depending on the case sensitivity flag.)
+     * @param wildcard  Boolean arrays which identify the location of wildcard symbols in each segment.
+     * @param matchOne  Boolean arrays which identify the location of match-one symbols in each segment.
+     * @param length    The compiled length of each segment.
+     * @param segments  The number of segments in the table.
+     */
+    protected SegmentGlobEngine(final byte[] kind, final char[][] lowerCase, final char[][] upperCase,
+                                final boolean[][] wildcard, final boolean[][] matchOne, final int[] length,
+                                final int segments) {
+        this.kind = kind;
+        this.lowerCase = lowerCase;
+        this.upperCase = upperCase;
+        this.wildcard = wildcard;
+        this.matchOne = matchOne;
+        this.length = length;
+        this.segments = segments;
+    }
+
+
+    @Override
+    public boolean matches(final String string) {
+
+        // The purest point of view where nothing can match null
+        if (string == null) {
+            return false;
+        }
+
+        final int stringLength = string.length();
+
+        // The start of the current input segment.  Once we have walked past the last segment this is one past
+        //  the end of the string
+        int position = 0;
+        int segmentIndex = 0;
+
+        // The last double wildcard we passed and the input segment it is currently matched up to
+        int segmentSavePoint = NO_SAVE_POINT;
+        int positionSavePoint = 0;
+
+        while (position <= stringLength) {
+            if (segmentIndex != segments && kind[segmentIndex] == ANY_SEGMENTS) {
+
+                // Remember this double wildcard and first try matching it against no segments (non-greedy)
+                segmentSavePoint = segmentIndex++;
+                positionSavePoint = position;
+                continue;
+            }
+
+            int end = string.indexOf('/', position);
+            if (end < 0) {
+                end = stringLength;
+            }
+
+            if (segmentIndex != segments && matchesSegment(segmentIndex, string, position, end)) {
+
+                // The segment matches so keep walking down both
+                segmentIndex++;
+                position = end + 1;
+            } else if (segmentSavePoint != NO_SAVE_POINT) {
+
+                // This branch has failed to match so let the last double wildcard eat one more segment and try
+                //  again from just after it
+                segmentIndex = segmentSavePoint + 1;
+                end = string.indexOf('/', positionSavePoint);
+                positionSavePoint = end < 0 ? stringLength + 1 : end + 1;
+                position = positionSavePoint;
+            } else {
+
+                // No double wildcard to fall back on so this pattern fails to match
+                return false;
+            }
+        }
+
+        // We are past the last input segment so anything left in the pattern has to be double wildcards matching
+        //  no segments
+        while (segmentIndex != segments && kind[segmentIndex] == ANY_SEGMENTS) {
+            segmentIndex++;
+        }
+        return segmentIndex == segments;
+    }
+
+    /**
+     * Match one pattern segment against the input characters from start (inclusive) to end (exclusive).
+     */
+    private boolean matchesSegment(final int segmentIndex, final String string, final int start, final int end) {
+        switch (kind[segmentIndex]) {
+            case ANY_ONE:
+                return true;
+            case LITERAL:
+                return matchesLiteral(segmentIndex, string, start, end);
+            default:
+                return matchesGlob(segmentIndex, string, start, end);
+        }
+    }
+
+    private boolean matchesLiteral(final int segmentIndex, final String string, final int start, final int end) {
+        final int length = this.length[segmentIndex];
+        if (end - start != length) {
+            return false;
+        }
+        final char[] lowerCase = this.lowerCase[segmentIndex];
+        final char[] upperCase = this.upperCase[segmentIndex];
+        final boolean[] matchOne = this.matchOne[segmentIndex];
+        for (int i = 0; i < length; ++i) {
+            final char c = string.charAt(start + i);
+            if (!matchOne[i] && c != lowerCase[i] && c != upperCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchesGlob(final int segmentIndex, final String string, final int start, final int end) {
+        final int length = this.length[segmentIndex];
+        final char[] lowerCase = this.lowerCase[segmentIndex];
+        final char[] upperCase = this.upperCase[segmentIndex];
+        final boolean[] wildcard = this.wildcard[segmentIndex];
+        final boolean[] matchOne = this.matchOne[segmentIndex];
+
+        // This is GlobEngine confined to the characters of one segment
+        int charsIndex = start;
+        int patternIndex = 0;
+        int patternSavePoint = NO_SAVE_POINT;
+        int charsSavePoint = start;
+
+        while (charsIndex != end) {
+            if (patternIndex != length && wildcard[patternIndex]) {
+                patternSavePoint = patternIndex++;
+                charsSavePoint = charsIndex;
+            } else if (patternIndex != length &&
+                    (matchOne[patternIndex] ||
+                            string.charAt(charsIndex) == lowerCase[patternIndex] ||
+                            string.charAt(charsIndex) == upperCase[patternIndex])) {
+                patternIndex++;
+                charsIndex++;
+            } else if (patternSavePoint != NO_SAVE_POINT) {
+                patternIndex = patternSavePoint + 1;
+                charsIndex = ++charsSavePoint;
+            } else {
+                return false;
+            }
+        }
+
+        while (patternIndex != length && wildcard[patternIndex]) {
+            patternIndex++;
+        }
+        return patternIndex == length;
+    }
+
+
+    @Override
+    public int matchingSizeInBytes() {
+        // A running matcher requires eleven integers, four for the segment walk, two for the segment bounds and
+        //  five for the glob matcher of a single segment
+        return Integer.BYTES * 11 + staticSizeInBytes();
+    }
+
+
+    @Override
+    public int staticSizeInBytes() {
+        // Lower and upper cases are the same size.  Boolean and the kind are assumed to be 1 byte for storage.
+        int size = Integer.BYTES;
+        for (int i = 0; i < segments; ++i) {
+            size += 1 + Integer.BYTES;
+            if (lowerCase[i] != null) {
+                size += lowerCase[i].length * (Character.BYTES * 2 + 2);
+            }
+        }
+        return size;
+    }
+}
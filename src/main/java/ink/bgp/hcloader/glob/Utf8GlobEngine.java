@@ -0,0 +1,272 @@
+package ink.bgp.hcloader.glob;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Matches a compiled pattern against UTF-8 encoded bytes.  Every literal in the pattern is encoded up front,
+ * once for the lower case and once for the upper case version, so matching only ever compares bytes.  The
+ * bytes are walked with the same two pointer star-backtrack algorithm as {@link GlobEngine}, except that the
+ * input pointer moves by a whole encoded character.
+ * <p>
+ * The results are the same as for the decoded string.  A character outside the BMP is two chars in a string,
+ * so there the input pointer can also stop halfway through its four bytes, once the high surrogate has been
+ * matched by a match-one symbol, a wildcard or a surrogate literal.
+ * <p>
+ * String input is handed to the regular engine for the same pattern so both kinds of input get the fastest
+ * available matcher.
+ */
+class Utf8GlobEngine implements ByteMatchingEngine {
+
+    // Used to identify when there is no wildcard to jump back to
+    static final int NO_SAVE_POINT = -1;
+
+    // Returned when only the high surrogate of a character outside the BMP was matched
+    static final int HIGH_SURROGATE = -1;
+
+    final MatchingEngine stringEngine;
+    final byte[][] lowerCase;
+    final byte[][] upperCase;
+    final char[] surrogate;
+    final boolean[] wildcard;
+    final boolean[] matchOne;
+    final int length;
+
+    /**
+     * Constructor for a UTF-8 Glob Engine Matcher.
+     *
+     * @param stringEngine The engine used to match string input.
+     * @param lowerCase The version of our pattern which should be used for lower case checking, with each
+     *                  character encoded separately.  (The actual contents may not be lower case depending
+     *                  on the case sensitivity flag.)
+     * @param upperCase The version of our pattern which should be used for upper case checking, with each
+     *                  character encoded separately.  (The actual contents may not be upper case depending
+     *                  on the case sensitivity flag.)
+     * @param surrogate The surrogate chars of our pattern that are not part of a pair, zero elsewhere.  These
+     *                  have no encoding of their own.
+     * @param wildcard  Boolean array which identifies the location of wildcard symbols in our pattern.
+     * @param matchOne  Boolean array which identifies the location of match-one symbols in our pattern.
+     * @param length    The number of characters in our pattern.
+     */
+    protected Utf8GlobEngine(final MatchingEngine stringEngine,
+                             final byte[][] lowerCase, final byte[][] upperCase, final char[] surrogate,
+                             final boolean[] wildcard, final boolean[] matchOne, final int length) {
+        this.stringEngine = stringEngine;
+        this.lowerCase = lowerCase;
+        this.upperCase = upperCase;
+        this.surrogate = surrogate;
+        this.wildcard = wildcard;
+        this.matchOne = matchOne;
+        this.length = length;
+    }
+
+    /**
+     * Encode the characters of a compiled pattern.  Surrogate pairs are joined into a single character so the
+     * encoded pattern lines up with the encoded input, a surrogate on its own is kept as a char.
+     */
+    static Utf8GlobEngine create(final MatchingEngine stringEngine,
+                                 final char[] lowerCase, final char[] upperCase,
+                                 final boolean[] wildcard, final boolean[] matchOne, final int length) {
+        byte[][] lowerBytes = new byte[length][];
+        byte[][] upperBytes = new byte[length][];
+        char[] surrogate = new char[length];
+        boolean[] wildcardOut = new boolean[length];
+        boolean[] matchOneOut = new boolean[length];
+        int index = 0;
+        for (int i = 0; i < length; ++i) {
+            wildcardOut[index] = wildcard[i];
+            matchOneOut[index] = matchOne[i];
+            if (!wildcard[i] && !matchOne[i]) {
+                int width = (i + 1 < length && Character.isHighSurrogate(lowerCase[i])
+                        && Character.isLowSurrogate(lowerCase[i + 1]) && !wildcard[i + 1] && !matchOne[i + 1]) ? 2 : 1;
+                if (width == 1 && Character.isSurrogate(lowerCase[i])) {
+                    surrogate[index] = lowerCase[i];
+                } else {
+                    lowerBytes[index] = encode(lowerCase, i, width);
+                    upperBytes[index] = encode(upperCase, i, width);
+                }
+                i += width - 1;
+            }
+            index++;
+        }
+        return new Utf8GlobEngine(stringEngine, lowerBytes, upperBytes, surrogate, wildcardOut, matchOneOut, index);
+    }
+
+    private static byte[] encode(final char[] chars, final int offset, final int length) {
+        return new String(chars, offset, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    @Override
+    public boolean matches(final String string) {
+        return stringEngine.matches(string);
+    }
+
+
+    @Override
+    public boolean matches(final byte[] bytes, final int offset, final int length) {
+
+        // The purest point of view where nothing can match null
+        if (bytes == null) {
+            return false;
+        }
+
+        final int end = offset + length;
+
+        // Our two indexes, one to walk down the input bytes and the other to walk down the pattern.  While only
+        //  the high surrogate of the character at the input index has been matched lowPending is set.
+        int bytesIndex = offset;
+        boolean lowPending = false;
+        int patternIndex = 0;
+
+        // The last wildcard we passed and the input position it is currently matched up to
+        int patternSavePoint = NO_SAVE_POINT;
+        int bytesSavePoint = offset;
+        boolean lowPendingSavePoint = false;
+
+        while (bytesIndex != end) {
+            int matched;
+            if (patternIndex != this.length && wildcard[patternIndex]) {
+
+                // Remember this wildcard and first try matching it against nothing (non-greedy)
+                patternSavePoint = patternIndex++;
+                bytesSavePoint = bytesIndex;
+                lowPendingSavePoint = lowPending;
+            } else if (patternIndex != this.length
+                    && (matched = matchAt(patternIndex, bytes, bytesIndex, end, lowPending)) != 0) {
+
+                // The character matches so keep walking down both
+                patternIndex++;
+                if (matched == HIGH_SURROGATE) {
+                    lowPending = true;
+                } else {
+                    bytesIndex += matched;
+                    lowPending = false;
+                }
+            } else if (patternSavePoint != NO_SAVE_POINT) {
+
+                // This branch has failed to match so let the last wildcard eat one more char and try again from
+                //  just after it
+                patternIndex = patternSavePoint + 1;
+                if (!lowPendingSavePoint && isSurrogatePair(bytes, bytesSavePoint, end)) {
+                    lowPendingSavePoint = true;
+                } else {
+                    bytesSavePoint += characterLength(bytes, bytesSavePoint, end);
+                    lowPendingSavePoint = false;
+                }
+                bytesIndex = bytesSavePoint;
+                lowPending = lowPendingSavePoint;
+            } else {
+
+                // No wildcard to fall back on so this pattern fails to match
+                return false;
+            }
+        }
+
+        // We are at the end of the input so anything left in the pattern has to be wildcards matching nothing
+        while (patternIndex != this.length && wildcard[patternIndex]) {
+            patternIndex++;
+        }
+        return patternIndex == this.length;
+    }
+
+    /**
+     * Try to match one pattern character at the given position.
+     *
+     * @return The number of bytes matched, {@link #HIGH_SURROGATE} if only the high surrogate of the character
+     *         was matched, or zero if the character does not match.
+     */
+    private int matchAt(final int patternIndex, final byte[] bytes, final int bytesIndex, final int end,
+                        final boolean lowPending) {
+        if (lowPending) {
+            // Only the low surrogate is left, which just a match-one or the same surrogate can match
+            if (matchOne[patternIndex] || surrogate[patternIndex] == Character.lowSurrogate(codePoint(bytes, bytesIndex))) {
+                return characterLength(bytes, bytesIndex, end);
+            }
+            return 0;
+        }
+        if (matchOne[patternIndex]) {
+            return isSurrogatePair(bytes, bytesIndex, end) ? HIGH_SURROGATE : characterLength(bytes, bytesIndex, end);
+        }
+        if (surrogate[patternIndex] != 0) {
+            return isSurrogatePair(bytes, bytesIndex, end)
+                    && surrogate[patternIndex] == Character.highSurrogate(codePoint(bytes, bytesIndex)) ? HIGH_SURROGATE : 0;
+        }
+        if (startsWith(lowerCase[patternIndex], bytes, bytesIndex, end)) {
+            return lowerCase[patternIndex].length;
+        }
+        if (startsWith(upperCase[patternIndex], bytes, bytesIndex, end)) {
+            return upperCase[patternIndex].length;
+        }
+        return 0;
+    }
+
+    private static boolean startsWith(final byte[] character, final byte[] bytes, final int bytesIndex, final int end) {
+        if (end - bytesIndex < character.length) {
+            return false;
+        }
+        for (int i = 0; i < character.length; ++i) {
+            if (bytes[bytesIndex + i] != character[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the encoded character starting at the given position is outside the BMP, so a surrogate pair once
+     * decoded.
+     */
+    private static boolean isSurrogatePair(final byte[] bytes, final int bytesIndex, final int end) {
+        return (bytes[bytesIndex] & 0xFF) >= 0xF0 && end - bytesIndex >= 4;
+    }
+
+    /**
+     * Decode the four byte character starting at the given position.
+     */
+    private static int codePoint(final byte[] bytes, final int bytesIndex) {
+        return ((bytes[bytesIndex] & 0x07) << 18) | ((bytes[bytesIndex + 1] & 0x3F) << 12)
+                | ((bytes[bytesIndex + 2] & 0x3F) << 6) | (bytes[bytesIndex + 3] & 0x3F);
+    }
+
+    /**
+     * The length of the encoded character starting at the given position, judged from its lead byte.  Malformed
+     * input is walked one byte at a time.
+     */
+    private static int characterLength(final byte[] bytes, final int bytesIndex, final int end) {
+        int lead = bytes[bytesIndex] & 0xFF;
+        int characterLength;
+        if (lead < 0xC0) {
+            characterLength = 1;
+        } else if (lead < 0xE0) {
+            characterLength = 2;
+        } else if (lead < 0xF0) {
+            characterLength = 3;
+        } else {
+            characterLength = 4;
+        }
+        return Math.min(characterLength, end - bytesIndex);
+    }
+
+
+    @Override
+    public int matchingSizeInBytes() {
+        // A running matcher requires six integers, two indexes, two save points, the end and the matched length,
+        //  and two flags for a pending low surrogate
+        return Integer.BYTES * 6 + 2 + staticSizeInBytes();
+    }
+
+
+    @Override
+    public int staticSizeInBytes() {
+        // Both encodings of every literal, the surrogate chars plus the string engine.  Boolean is assumed to be
+        //  1 byte for storage.
+        int size = 0;
+        for (int i = 0; i < length; ++i) {
+            if (lowerCase[i] != null) {
+                size += lowerCase[i].length + upperCase[i].length;
+            }
+            size += 2 + Character.BYTES;
+        }
+        return size + Integer.BYTES + stringEngine.staticSizeInBytes();
+    }
+}
@@ -33,6 +33,28 @@ final class AsciiBytes {
 
 	private static final int SUBSEQUENT_BYTE_BITMASK = 0x3F;
 
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	private static final int UNKNOWN = 0;
+
+	private static final int ASCII = 1;
+
+	private static final int NON_ASCII = 2;
+
+	private static final int POW_31_2 = 31 * 31;
+
+	private static final int POW_31_3 = POW_31_2 * 31;
+
+	private static final int POW_31_4 = POW_31_3 * 31;
+
+	private static final int POW_31_5 = POW_31_4 * 31;
+
+	private static final int POW_31_6 = POW_31_5 * 31;
+
+	private static final int POW_31_7 = POW_31_6 * 31;
+
+	private static final int POW_31_8 = POW_31_7 * 31;
+
 	private final byte[] bytes;
 
 	private final int offset;
@@ -43,6 +65,8 @@ final class AsciiBytes {
 
 	private int hash;
 
+	private int ascii;
+
 	/**
 	 * Create a new {@link AsciiBytes} from the specified String.
 	 * @param string the source string
@@ -125,6 +149,9 @@ final class AsciiBytes {
 	}
 
 	boolean matches(CharSequence name, char suffix) {
+		if (isAscii()) {
+			return matchesAscii(name, suffix);
+		}
 		int charIndex = 0;
 		int nameLen = name.length();
 		int totalLen = nameLen + ((suffix != 0) ? 1 : 0);
@@ -154,6 +181,55 @@ final class AsciiBytes {
 		return charIndex == totalLen;
 	}
 
+	private boolean matchesAscii(CharSequence name, char suffix) {
+		// Every byte is a single char so we can reject on length alone
+		int nameLen = name.length();
+		if (this.length != nameLen + ((suffix != 0) ? 1 : 0)) {
+			return false;
+		}
+		byte[] bytes = this.bytes;
+		int offset = this.offset;
+		for (int i = 0; i < nameLen; i++) {
+			if (name.charAt(i) != bytes[offset + i]) {
+				return false;
+			}
+		}
+		return suffix == 0 || bytes[offset + nameLen] == suffix;
+	}
+
+	private boolean isAscii() {
+		int ascii = this.ascii;
+		if (ascii == UNKNOWN) {
+			ascii = hasHighBits() ? NON_ASCII : ASCII;
+			this.ascii = ascii;
+		}
+		return ascii == ASCII;
+	}
+
+	private boolean hasHighBits() {
+		// Check a word at a time, any byte of a multi-byte UTF-8 sequence has its
+		// high bit set
+		int end = this.offset + this.length;
+		int i = this.offset;
+		for (; i + Long.BYTES <= end; i += Long.BYTES) {
+			if ((getLong(this.bytes, i) & HIGH_BITS) != 0) {
+				return true;
+			}
+		}
+		for (; i < end; i++) {
+			if (this.bytes[i] < 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long getLong(byte[] bytes, int i) {
+		return ((long) bytes[i] << 56) | ((bytes[i + 1] & 0xFFL) << 48) | ((bytes[i + 2] & 0xFFL) << 40)
+				| ((bytes[i + 3] & 0xFFL) << 32) | ((bytes[i + 4] & 0xFFL) << 24) | ((bytes[i + 5] & 0xFFL) << 16)
+				| ((bytes[i + 6] & 0xFFL) << 8) | (bytes[i + 7] & 0xFFL);
+	}
+
 	private char getChar(CharSequence name, char suffix, int index) {
 		if (index < name.length()) {
 			return name.charAt(index);
@@ -202,6 +278,11 @@ final class AsciiBytes {
 	public int hashCode() {
 		int hash = this.hash;
 		if (hash == 0 && this.bytes.length > 0) {
+			if (isAscii()) {
+				hash = asciiHashCode();
+				this.hash = hash;
+				return hash;
+			}
 			for (int i = this.offset; i < this.offset + this.length; i++) {
 				int b = this.bytes[i];
 				int remainingUtfBytes = getNumberOfUtfBytes(b) - 1;
@@ -222,6 +303,23 @@ final class AsciiBytes {
 		return hash;
 	}
 
+	private int asciiHashCode() {
+		// Same result as String.hashCode() but unrolled a word at a time
+		byte[] bytes = this.bytes;
+		int end = this.offset + this.length;
+		int hash = 0;
+		int i = this.offset;
+		for (; i + Long.BYTES <= end; i += Long.BYTES) {
+			hash = POW_31_8 * hash + POW_31_7 * bytes[i] + POW_31_6 * bytes[i + 1] + POW_31_5 * bytes[i + 2]
+					+ POW_31_4 * bytes[i + 3] + POW_31_3 * bytes[i + 4] + POW_31_2 * bytes[i + 5] + 31 * bytes[i + 6]
+					+ bytes[i + 7];
+		}
+		for (; i < end; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash;
+	}
+
 	@Override
 	public String toString() {
 		if (this.string == null) {
@@ -241,8 +339,8 @@ final class AsciiBytes {
 
 	static int hashCode(CharSequence charSequence) {
 		// We're compatible with String's hashCode()
-		if (charSequence instanceof StringSequence) {
-			// ... but save making an unnecessary String for StringSequence
+		if (charSequence instanceof StringSequence || charSequence instanceof JarURLConnection.DecodedName) {
+			// ... but save making an unnecessary String for our own sequences
 			return charSequence.hashCode();
 		}
 		return charSequence.toString().hashCode();
@@ -59,6 +59,21 @@ class CentralDirectoryParser {
 		return data;
 	}
 
+	/**
+	 * Parse only the end record of the source data, triggering the start of the
+	 * {@link CentralDirectoryVisitor visitors}. Used when the entries are restored from an
+	 * earlier parse of the same data.
+	 * @param data the source data
+	 * @return the actual archive data without any prefix bytes
+	 * @throws IOException on error
+	 */
+	RandomAccessData parseEndRecord(RandomAccessData data) throws IOException {
+		CentralDirectoryEndRecord endRecord = new CentralDirectoryEndRecord(data);
+		data = getArchiveData(endRecord, data);
+		visitStart(endRecord, endRecord.getCentralDirectory(data));
+		return data;
+	}
+
 	private void parseEntries(CentralDirectoryEndRecord endRecord, RandomAccessData centralDirectoryData)
 			throws IOException {
 		byte[] bytes = centralDirectoryData.read(0, centralDirectoryData.getSize());
@@ -24,6 +24,7 @@ import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -67,6 +68,8 @@ public class Handler extends URLStreamHandler {
 
 	private static SoftReference<Map<File, JarFile>> rootFileCache;
 
+	private static final Map<File, Integer> rootFileHolders = new HashMap<>();
+
 	static {
 		rootFileCache = new SoftReference<>(null);
 	}
@@ -381,7 +384,7 @@ public class Handler extends URLStreamHandler {
 			File file = new File(URI.create(name));
 			Map<File, JarFile> cache = rootFileCache.get();
 			JarFile result = (cache != null) ? cache.get(file) : null;
-			if (result == null) {
+			if (result == null || result.isClosed()) {
 				result = new JarFile(file);
 				addToRootFileCache(file, result);
 			}
@@ -406,6 +409,65 @@ public class Handler extends URLStreamHandler {
 		cache.put(sourceFile, jarFile);
 	}
 
+	/**
+	 * Register a holder of the cached root {@link JarFile} that backs the given URL. The
+	 * jar file stays cached until every holder has called
+	 * {@link #releaseRootJarFile(URL)}.
+	 * @param url the URL whose root jar file is held
+	 */
+	public static void retainRootJarFile(URL url) {
+		File file = getRootFile(url);
+		if (file == null) {
+			return;
+		}
+		synchronized (rootFileHolders) {
+			rootFileHolders.merge(file, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Release a hold taken with {@link #retainRootJarFile(URL)}. Once no holder is left
+	 * the cached root {@link JarFile} that backs the given URL, if any, is removed and
+	 * closed. Connections opened later will have it reopened. A release without a
+	 * matching retain does nothing.
+	 * @param url the URL whose root jar file should be released
+	 * @throws IOException if the jar file cannot be closed
+	 */
+	public static void releaseRootJarFile(URL url) throws IOException {
+		File file = getRootFile(url);
+		if (file == null) {
+			return;
+		}
+		JarFile jarFile;
+		synchronized (rootFileHolders) {
+			Integer holders = rootFileHolders.get(file);
+			if (holders == null) {
+				// Nothing retained it, so it may still be in use by someone else
+				return;
+			}
+			if (holders > 1) {
+				rootFileHolders.put(file, holders - 1);
+				return;
+			}
+			rootFileHolders.remove(file);
+			Map<File, JarFile> cache = rootFileCache.get();
+			jarFile = (cache != null) ? cache.remove(file) : null;
+		}
+		if (jarFile != null) {
+			jarFile.close();
+		}
+	}
+
+	private static File getRootFile(URL url) {
+		String spec = url.getFile();
+		int separatorIndex = spec.indexOf(SEPARATOR);
+		String name = (separatorIndex != -1) ? spec.substring(0, separatorIndex) : spec;
+		if (!name.startsWith(FILE_PROTOCOL)) {
+			return null;
+		}
+		return new File(URI.create(name));
+	}
+
 	/**
 	 * If possible, capture a URL that is configured with the original jar handler so that
 	 * we can use it as a fallback context later. We can only do this if we know that we
@@ -30,6 +30,8 @@ import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 import java.util.function.Supplier;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
@@ -38,6 +40,7 @@ import java.util.zip.ZipEntry;
 
 import ink.bgp.hcloader.data.RandomAccessData;
 import ink.bgp.hcloader.data.RandomAccessDataFile;
+import ink.bgp.hcloader.glob.ByteMatchingEngine;
 
 /**
  * Extended variant of {@link java.util.jar.JarFile} that behaves in the same way but
@@ -111,6 +114,22 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		this(file, "", file, JarFileType.DIRECT);
 	}
 
+	/**
+	 * Create a new {@link JarFile} backed by the specified file, restoring its entries
+	 * from the {@link #getCentralDirectoryIndex() central directory index} of another
+	 * {@link JarFile} of the same, unchanged file instead of parsing them again.
+	 * @param file the root jar file
+	 * @param centralDirectoryIndex the central directory index of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public JarFile(File file, Object[] centralDirectoryIndex) throws IOException {
+		this(new RandomAccessDataFile(file), centralDirectoryIndex);
+	}
+
+	private JarFile(RandomAccessDataFile file, Object[] centralDirectoryIndex) throws IOException {
+		this(file, "", file, null, JarFileType.DIRECT, null, centralDirectoryIndex);
+	}
+
 	/**
 	 * Private constructor used to create a new {@link JarFile} either directly or from a
 	 * nested entry.
@@ -122,11 +141,11 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 	 */
 	private JarFile(RandomAccessDataFile rootFile, String pathFromRoot, RandomAccessData data, JarFileType type)
 			throws IOException {
-		this(rootFile, pathFromRoot, data, null, type, null);
+		this(rootFile, pathFromRoot, data, null, type, null, null);
 	}
 
 	private JarFile(RandomAccessDataFile rootFile, String pathFromRoot, RandomAccessData data, JarEntryFilter filter,
-			JarFileType type, Supplier<Manifest> manifestSupplier) throws IOException {
+			JarFileType type, Supplier<Manifest> manifestSupplier, Object[] centralDirectoryIndex) throws IOException {
 		super(rootFile.getFile());
 		if (System.getSecurityManager() == null) {
 			super.close();
@@ -138,7 +157,14 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		this.type = type;
 		parser.addVisitor(centralDirectoryVisitor());
 		try {
-			this.data = parser.parse(data, filter == null);
+			if (centralDirectoryIndex != null) {
+				this.data = parser.parseEndRecord(data);
+				this.entries.restore((Object[]) centralDirectoryIndex[0]);
+				this.signed = (Boolean) centralDirectoryIndex[1];
+			}
+			else {
+				this.data = parser.parse(data, filter == null);
+			}
 		}
 		catch (RuntimeException ex) {
 			try {
@@ -185,6 +211,20 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		};
 	}
 
+	/**
+	 * Return the parsed central directory of this jar file made of JDK types only, so
+	 * that another copy of this class, loaded by a different class loader, can create a
+	 * {@link JarFile} of the same file from it with {@link #JarFile(File, Object[])}.
+	 * @return the central directory index
+	 * @throws IllegalStateException if this jar file is not opened directly from a file
+	 */
+	public Object[] getCentralDirectoryIndex() {
+		if (this.type != JarFileType.DIRECT) {
+			throw new IllegalStateException("Only jar files opened from a file have a central directory index");
+		}
+		return new Object[] { this.entries.getIndex(), this.signed };
+	}
+
 	JarFileWrapper getWrapper() throws IOException {
 		JarFileWrapper wrapper = this.wrapper;
 		if (wrapper == null) {
@@ -245,6 +285,35 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		return (Iterator) this.entries.iterator(this::ensureOpen);
 	}
 
+	/**
+	 * Visit the entries whose names start with one of the given prefixes in a single
+	 * pass. Entries that don't match any prefix are skipped without creating a
+	 * {@link java.util.jar.JarEntry}.
+	 * @param prefixes the entry name prefixes
+	 * @param consumer receives each matching entry and the index of the first prefix it
+	 * matched
+	 * @throws IOException on IO error
+	 */
+	public void forEachEntryWithPrefix(String[] prefixes, ObjIntConsumer<java.util.jar.JarEntry> consumer)
+			throws IOException {
+		ensureOpen();
+		this.entries.forEachEntryWithPrefix(prefixes, consumer::accept);
+	}
+
+	/**
+	 * Visit the entries whose names match the given engine in a single pass. Names are
+	 * matched on their raw bytes, so entries that don't match are skipped without
+	 * creating a {@link java.util.jar.JarEntry} or decoding their name.
+	 * @param engine the engine to match entry names with
+	 * @param consumer receives each matching entry
+	 * @throws IOException on IO error
+	 */
+	public void forEachMatchingEntry(ByteMatchingEngine engine, Consumer<java.util.jar.JarEntry> consumer)
+			throws IOException {
+		ensureOpen();
+		this.entries.forEachMatchingEntry(engine, consumer::accept);
+	}
+
 	public JarEntry getJarEntry(CharSequence name) {
 		return this.entries.getEntry(name);
 	}
@@ -258,6 +327,10 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		return this.entries.containsEntry(name);
 	}
 
+	public boolean containsEntry(CharSequence name) {
+		return this.entries.containsEntry(name);
+	}
+
 	@Override
 	public ZipEntry getEntry(String name) {
 		ensureOpen();
@@ -323,7 +396,7 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 			return null;
 		};
 		return new JarFile(this.rootFile, this.pathFromRoot + "!/" + entry.getName().substring(0, name.length() - 1),
-				this.data, filter, JarFileType.NESTED_DIRECTORY, this.manifestSupplier);
+				this.data, filter, JarFileType.NESTED_DIRECTORY, this.manifestSupplier, null);
 	}
 
 	private JarFile createJarFileFromFileEntry(JarEntry entry) throws IOException {
@@ -359,6 +432,7 @@ public class JarFile extends AbstractJarFile implements Iterable<java.util.jar.J
 		if (this.type == JarFileType.DIRECT) {
 			this.rootFile.close();
 		}
+		this.entries.clearCache();
 		this.closed = true;
 	}
 
@@ -18,12 +18,15 @@ package ink.bgp.hcloader.jar;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.JarInputStream;
@@ -31,6 +34,7 @@ import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 
 import ink.bgp.hcloader.data.RandomAccessData;
+import ink.bgp.hcloader.glob.ByteMatchingEngine;
 
 /**
  * Provides access to entries from a {@link JarFile}. In order to reduce memory
@@ -73,12 +77,18 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 
 	private static final long LOCAL_FILE_HEADER_SIZE = 30;
 
+	private static final int CENTRAL_DIRECTORY_HEADER_BASE_SIZE = 46;
+
 	private static final char SLASH = '/';
 
 	private static final char NO_SUFFIX = 0;
 
 	protected static final int ENTRY_CACHE_SIZE = 25;
 
+	private static final int RADIX_BITS = 8;
+
+	private static final int RADIX = 1 << RADIX_BITS;
+
 	private final JarFile jarFile;
 
 	private final JarEntryFilter filter;
@@ -141,7 +151,7 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 
 	@Override
 	public void visitEnd() {
-		sort(0, this.size - 1);
+		sort();
 		int[] positions = this.positions;
 		this.positions = new int[positions.length];
 		for (int i = 0; i < this.size; i++) {
@@ -149,42 +159,100 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 		}
 	}
 
+	/**
+	 * Return the parsed entries made of JDK types only, so that the entries of a
+	 * {@link JarFile} loaded by another class loader can be {@link #restore(Object[])
+	 * restored} from them. The arrays are shared rather than copied as they are never
+	 * written once parsed.
+	 * @return the parsed entries
+	 */
+	Object[] getIndex() {
+		return new Object[] { this.size, this.hashCodes, this.positions, this.centralDirectoryOffsets.toArray() };
+	}
+
+	/**
+	 * Restore the entries from the {@link #getIndex() index} of the same central
+	 * directory instead of visiting its file headers. Must be called after
+	 * {@link #visitStart(CentralDirectoryEndRecord, RandomAccessData)}.
+	 * @param index the index
+	 */
+	void restore(Object[] index) {
+		int[] hashCodes = (int[]) index[1];
+		if (hashCodes.length != this.hashCodes.length) {
+			throw new IllegalStateException("Index does not match the central directory");
+		}
+		this.size = (Integer) index[0];
+		this.hashCodes = hashCodes;
+		this.positions = (int[]) index[2];
+		this.centralDirectoryOffsets = Offsets.of(index[3]);
+	}
+
 	int getSize() {
 		return this.size;
 	}
 
-	private void sort(int left, int right) {
-		// Quick sort algorithm, uses hashCodes as the source but sorts all arrays
-		if (left < right) {
-			int pivot = this.hashCodes[left + (right - left) / 2];
-			int i = left;
-			int j = right;
-			while (i <= j) {
-				while (this.hashCodes[i] < pivot) {
-					i++;
-				}
-				while (this.hashCodes[j] > pivot) {
-					j--;
-				}
-				if (i <= j) {
-					swap(i, j);
-					i++;
-					j--;
-				}
+	private void sort() {
+		int size = this.size;
+		if (size < 2) {
+			return;
+		}
+		int[] order = sort(this.hashCodes, size);
+		this.centralDirectoryOffsets.permute(order, size);
+		System.arraycopy(order, 0, this.positions, 0, size);
+	}
+
+	/**
+	 * Sort the first {@code size} hash codes in place and return the original index of
+	 * each sorted hash code, so the same order can be applied to the other arrays in bulk.
+	 * @param hashCodes the hash codes to sort
+	 * @param size the number of hash codes in use
+	 * @return the original indexes in sorted order
+	 */
+	static int[] sort(int[] hashCodes, int size) {
+		// LSD radix sort that uses hashCodes as the source. Only the original indexes are
+		// moved around during the passes
+		int[] keys = Arrays.copyOf(hashCodes, size);
+		int[] keysBuffer = new int[size];
+		int[] order = new int[size];
+		int[] orderBuffer = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		if (size < 2) {
+			return order;
+		}
+		int[] counts = new int[RADIX + 1];
+		for (int shift = 0; shift < Integer.SIZE; shift += RADIX_BITS) {
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < size; i++) {
+				counts[digit(keys[i], shift) + 1]++;
 			}
-			if (left < j) {
-				sort(left, j);
+			if (counts[digit(keys[0], shift) + 1] == size) {
+				// Every key shares this digit so the pass would not change anything
+				continue;
 			}
-			if (right > i) {
-				sort(i, right);
+			for (int i = 0; i < RADIX; i++) {
+				counts[i + 1] += counts[i];
 			}
+			for (int i = 0; i < size; i++) {
+				int target = counts[digit(keys[i], shift)]++;
+				keysBuffer[target] = keys[i];
+				orderBuffer[target] = order[i];
+			}
+			int[] swap = keys;
+			keys = keysBuffer;
+			keysBuffer = swap;
+			swap = order;
+			order = orderBuffer;
+			orderBuffer = swap;
 		}
+		System.arraycopy(keys, 0, hashCodes, 0, size);
+		return order;
 	}
 
-	private void swap(int i, int j) {
-		swap(this.hashCodes, i, j);
-		this.centralDirectoryOffsets.swap(i, j);
-		swap(this.positions, i, j);
+	private static int digit(int hashCode, int shift) {
+		// Flip the sign bit so that negative hash codes sort before positive ones
+		return ((hashCode ^ Integer.MIN_VALUE) >>> shift) & (RADIX - 1);
 	}
 
 	@Override
@@ -196,6 +264,106 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 		return new EntryIterator(validator);
 	}
 
+	/**
+	 * Perform a single sequential pass over the entries, passing each entry whose name
+	 * starts with one of the given prefixes to the consumer along with the index of the
+	 * first matching prefix. Entries that match no prefix are rejected on their raw name
+	 * bytes without creating a {@link JarEntry}.
+	 * @param prefixes the entry name prefixes
+	 * @param consumer the consumer of matching entries
+	 * @throws IOException on IO error
+	 */
+	void forEachEntryWithPrefix(String[] prefixes, ObjIntConsumer<JarEntry> consumer) throws IOException {
+		if (this.filter != null) {
+			// Names are rewritten by the filter so they don't match the raw bytes
+			for (int i = 0; i < this.size; i++) {
+				JarEntry entry = getEntry(this.positions[i], JarEntry.class, false, null);
+				int prefix = indexOfPrefix(entry.getName(), prefixes);
+				if (prefix != -1) {
+					consumer.accept(entry, prefix);
+				}
+			}
+			return;
+		}
+		byte[][] prefixBytes = new byte[prefixes.length][];
+		for (int i = 0; i < prefixes.length; i++) {
+			prefixBytes[i] = prefixes[i].getBytes(StandardCharsets.UTF_8);
+		}
+		byte[] bytes = this.centralDirectoryData.read(0, this.centralDirectoryData.getSize());
+		int offset = 0;
+		for (int i = 0; i < this.size; i++) {
+			int nameLength = (int) Bytes.littleEndianValue(bytes, offset + 28, 2);
+			int extraLength = (int) Bytes.littleEndianValue(bytes, offset + 30, 2);
+			int commentLength = (int) Bytes.littleEndianValue(bytes, offset + 32, 2);
+			int prefix = indexOfPrefix(bytes, offset + CENTRAL_DIRECTORY_HEADER_BASE_SIZE, nameLength, prefixBytes);
+			if (prefix != -1) {
+				consumer.accept(getEntry(this.positions[i], JarEntry.class, false, null), prefix);
+			}
+			offset += CENTRAL_DIRECTORY_HEADER_BASE_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+
+	/**
+	 * Perform a single sequential pass over the entries, passing each entry whose name
+	 * matches the given engine to the consumer. Names are matched on their raw UTF-8
+	 * bytes so entries that don't match are rejected without creating a {@link JarEntry}
+	 * or a {@link String}.
+	 * @param engine the engine to match entry names with
+	 * @param consumer the consumer of matching entries
+	 * @throws IOException on IO error
+	 */
+	void forEachMatchingEntry(ByteMatchingEngine engine, Consumer<JarEntry> consumer) throws IOException {
+		if (this.filter != null) {
+			// Names are rewritten by the filter so they don't match the raw bytes
+			for (int i = 0; i < this.size; i++) {
+				JarEntry entry = getEntry(this.positions[i], JarEntry.class, false, null);
+				if (engine.matches(entry.getName())) {
+					consumer.accept(entry);
+				}
+			}
+			return;
+		}
+		byte[] bytes = this.centralDirectoryData.read(0, this.centralDirectoryData.getSize());
+		int offset = 0;
+		for (int i = 0; i < this.size; i++) {
+			int nameLength = (int) Bytes.littleEndianValue(bytes, offset + 28, 2);
+			int extraLength = (int) Bytes.littleEndianValue(bytes, offset + 30, 2);
+			int commentLength = (int) Bytes.littleEndianValue(bytes, offset + 32, 2);
+			if (engine.matches(bytes, offset + CENTRAL_DIRECTORY_HEADER_BASE_SIZE, nameLength)) {
+				consumer.accept(getEntry(this.positions[i], JarEntry.class, false, null));
+			}
+			offset += CENTRAL_DIRECTORY_HEADER_BASE_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+
+	private static int indexOfPrefix(String name, String[] prefixes) {
+		for (int i = 0; i < prefixes.length; i++) {
+			if (name.startsWith(prefixes[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOfPrefix(byte[] bytes, int offset, int length, byte[][] prefixes) {
+		for (int i = 0; i < prefixes.length; i++) {
+			byte[] prefix = prefixes[i];
+			if (prefix.length <= length && startsWith(bytes, offset, prefix)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+		for (int i = 0; i < prefix.length; i++) {
+			if (bytes[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	boolean containsEntry(CharSequence name) {
 		return getEntry(name, FileHeader.class, true) != null;
 	}
@@ -258,7 +426,16 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 	}
 
 	private boolean isMetaInfEntry(CharSequence name) {
-		return name.toString().startsWith(META_INF_PREFIX);
+		int length = META_INF_PREFIX.length();
+		if (name.length() < length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (name.charAt(i) != META_INF_PREFIX.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	private boolean isMultiReleaseJar() {
@@ -382,18 +559,6 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 		return -1;
 	}
 
-	private static void swap(int[] array, int i, int j) {
-		int temp = array[i];
-		array[i] = array[j];
-		array[j] = temp;
-	}
-
-	private static void swap(long[] array, int i, int j) {
-		long temp = array[i];
-		array[i] = array[j];
-		array[j] = temp;
-	}
-
 	/**
 	 * Iterator for contained entries.
 	 */
@@ -438,13 +603,28 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 
 		long get(int index);
 
-		void swap(int i, int j);
+		/**
+		 * Reorder the offsets so that the offset at {@code order[i]} moves to {@code i}.
+		 * @param order the new order of the existing indexes
+		 * @param size the number of offsets in use
+		 */
+		void permute(int[] order, int size);
+
+		/**
+		 * Return the backing array, an {@code int[]} or a {@code long[]}.
+		 * @return the backing array
+		 */
+		Object toArray();
 
 		static Offsets from(CentralDirectoryEndRecord endRecord) {
 			int size = endRecord.getNumberOfRecords();
 			return endRecord.isZip64() ? new Zip64Offsets(size) : new ZipOffsets(size);
 		}
 
+		static Offsets of(Object array) {
+			return (array instanceof long[]) ? new Zip64Offsets((long[]) array) : new ZipOffsets((int[]) array);
+		}
+
 	}
 
 	/**
@@ -452,15 +632,23 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 	 */
 	private static final class ZipOffsets implements Offsets {
 
-		private final int[] offsets;
+		private int[] offsets;
 
 		private ZipOffsets(int size) {
 			this.offsets = new int[size];
 		}
 
+		private ZipOffsets(int[] offsets) {
+			this.offsets = offsets;
+		}
+
 		@Override
-		public void swap(int i, int j) {
-			JarFileEntries.swap(this.offsets, i, j);
+		public void permute(int[] order, int size) {
+			int[] offsets = new int[this.offsets.length];
+			for (int i = 0; i < size; i++) {
+				offsets[i] = this.offsets[order[i]];
+			}
+			this.offsets = offsets;
 		}
 
 		@Override
@@ -473,6 +661,11 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 			return this.offsets[index];
 		}
 
+		@Override
+		public Object toArray() {
+			return this.offsets;
+		}
+
 	}
 
 	/**
@@ -480,15 +673,23 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 	 */
 	private static final class Zip64Offsets implements Offsets {
 
-		private final long[] offsets;
+		private long[] offsets;
 
 		private Zip64Offsets(int size) {
 			this.offsets = new long[size];
 		}
 
+		private Zip64Offsets(long[] offsets) {
+			this.offsets = offsets;
+		}
+
 		@Override
-		public void swap(int i, int j) {
-			JarFileEntries.swap(this.offsets, i, j);
+		public void permute(int[] order, int size) {
+			long[] offsets = new long[this.offsets.length];
+			for (int i = 0; i < size; i++) {
+				offsets[i] = this.offsets[order[i]];
+			}
+			this.offsets = offsets;
 		}
 
 		@Override
@@ -501,6 +702,11 @@ class JarFileEntries implements CentralDirectoryVisitor, Iterable<JarEntry> {
 			return this.offsets[index];
 		}
 
+		@Override
+		public Object toArray() {
+			return this.offsets;
+		}
+
 	}
 
 }
@@ -250,20 +250,18 @@ final class JarURLConnection extends java.net.JarURLConnection {
 		}
 		int separator;
 		while ((separator = spec.indexOf(SEPARATOR, index)) > 0) {
-			JarEntryName entryName = JarEntryName.get(spec.subSequence(index, separator));
-			JarEntry jarEntry = jarFile.getJarEntry(entryName.toCharSequence());
+			JarEntry jarEntry = jarFile.getJarEntry(JarEntryName.decodeForLookup(spec, index, separator));
 			if (jarEntry == null) {
-				return JarURLConnection.notFound(jarFile, entryName);
+				return JarURLConnection.notFound(jarFile, JarEntryName.get(spec.subSequence(index, separator)));
 			}
 			jarFile = jarFile.getNestedJarFile(jarEntry);
 			index = separator + SEPARATOR.length();
 		}
-		JarEntryName jarEntryName = JarEntryName.get(spec, index);
-		if (Boolean.TRUE.equals(useFastExceptions.get()) && !jarEntryName.isEmpty()
-				&& !jarFile.containsEntry(jarEntryName.toString())) {
+		if (Boolean.TRUE.equals(useFastExceptions.get()) && spec.length() > index
+				&& !jarFile.containsEntry(JarEntryName.decodeForLookup(spec, index, spec.length()))) {
 			return NOT_FOUND_CONNECTION;
 		}
-		return new JarURLConnection(url, jarFile.getWrapper(), jarEntryName);
+		return new JarURLConnection(url, jarFile.getWrapper(), JarEntryName.get(spec, index));
 	}
 
 	private static int indexOfRootSpec(StringSequence file, String pathFromRoot) {
@@ -307,6 +305,10 @@ final class JarURLConnection extends java.net.JarURLConnection {
 			if (source.isEmpty() || (source.indexOf('%') < 0)) {
 				return source;
 			}
+			CharSequence decoded = DecodedName.get().decode(source, 0, source.length());
+			if (decoded != null) {
+				return new StringSequence(decoded.toString());
+			}
 			ByteArrayOutputStream bos = new ByteArrayOutputStream(source.length());
 			write(source.toString(), bos);
 			// AsciiBytes is what is used to store the JarEntries so make it symmetric
@@ -381,6 +383,19 @@ final class JarURLConnection extends java.net.JarURLConnection {
 			return get(spec, 0);
 		}
 
+		/**
+		 * Decode part of the spec for an entry lookup. The result is only valid until the
+		 * next decode on the same thread.
+		 * @param spec the source spec
+		 * @param beginIndex the begin index of the entry name
+		 * @param endIndex the end index of the entry name
+		 * @return the decoded entry name
+		 */
+		static CharSequence decodeForLookup(StringSequence spec, int beginIndex, int endIndex) {
+			CharSequence decoded = DecodedName.get().decode(spec, beginIndex, endIndex);
+			return (decoded != null) ? decoded : get(spec.subSequence(beginIndex, endIndex)).toCharSequence();
+		}
+
 		static JarEntryName get(StringSequence spec, int beginIndex) {
 			if (spec.length() <= beginIndex) {
 				return EMPTY_JAR_ENTRY_NAME;
@@ -390,4 +405,100 @@ final class JarURLConnection extends java.net.JarURLConnection {
 
 	}
 
+	/**
+	 * A reusable per-thread buffer that entry names are decoded into. The common cases
+	 * of names without escapes or with only ASCII escapes are decoded and hashed in a
+	 * single pass without creating intermediate strings.
+	 */
+	static final class DecodedName implements CharSequence {
+
+		private static final ThreadLocal<DecodedName> instance = ThreadLocal.withInitial(DecodedName::new);
+
+		private static final int INITIAL_CAPACITY = 256;
+
+		private char[] chars = new char[INITIAL_CAPACITY];
+
+		private int length;
+
+		private int hash;
+
+		private DecodedName() {
+		}
+
+		static DecodedName get() {
+			return instance.get();
+		}
+
+		/**
+		 * Decode the given part of the source into this buffer.
+		 * @param source the source
+		 * @param beginIndex the begin index
+		 * @param endIndex the end index
+		 * @return this buffer or {@code null} if the source contains an escaped
+		 * multi-byte sequence that needs a full UTF-8 decode
+		 */
+		DecodedName decode(CharSequence source, int beginIndex, int endIndex) {
+			if (this.chars.length < endIndex - beginIndex) {
+				this.chars = new char[endIndex - beginIndex];
+			}
+			char[] chars = this.chars;
+			int length = 0;
+			int hash = 0;
+			for (int i = beginIndex; i < endIndex; i++) {
+				char c = source.charAt(i);
+				if (c == '%') {
+					if ((i + 2) >= endIndex) {
+						throw new IllegalArgumentException("Invalid encoded sequence \""
+								+ source.subSequence(i, endIndex) + "\"");
+					}
+					int hi = Character.digit(source.charAt(i + 1), 16);
+					int lo = Character.digit(source.charAt(i + 2), 16);
+					if (hi == -1 || lo == -1) {
+						throw new IllegalArgumentException("Invalid encoded sequence \""
+								+ source.subSequence(i, endIndex) + "\"");
+					}
+					c = (char) ((hi << 4) + lo);
+					if (c > 127) {
+						return null;
+					}
+					i += 2;
+				}
+				chars[length++] = c;
+				hash = 31 * hash + c;
+			}
+			this.length = length;
+			this.hash = hash;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return this.length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index >= this.length) {
+				throw new StringIndexOutOfBoundsException(index);
+			}
+			return this.chars[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public String toString() {
+			return new String(this.chars, 0, this.length);
+		}
+
+	}
+
 }
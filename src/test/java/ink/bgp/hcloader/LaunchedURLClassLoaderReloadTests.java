@@ -0,0 +1,163 @@
+package ink.bgp.hcloader;
+
+import ink.bgp.hcloader.archive.Archive;
+import ink.bgp.hcloader.archive.JarFileArchive;
+import ink.bgp.hcloader.jar.Handler;
+import ink.bgp.hcloader.jar.JarFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Reloads a plugin over and over, the way a server reloads plugins at runtime, and checks that closing its
+ * {@link LaunchedURLClassLoader} gives back the file descriptors and heap it took.
+ */
+class LaunchedURLClassLoaderReloadTests {
+  private static final int RELOADS = 1000;
+  private static final int WARMUP = 50;
+  private static final String NESTED_JAR = "META-INF/hcloader/delegate/lib.jar";
+  private static final String RESOURCE = "res/a.txt";
+
+  @TempDir
+  Path tempDir;
+
+  private Path plugin;
+
+  @BeforeEach
+  void setup() throws IOException {
+    final ByteArrayOutputStream nested = new ByteArrayOutputStream();
+    try (final JarOutputStream out = new JarOutputStream(nested)) {
+      out.putNextEntry(new JarEntry(RESOURCE));
+      out.write("hello".getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+    final byte[] nestedJar = nested.toByteArray();
+    plugin = tempDir.resolve("plugin.jar");
+    try (final JarOutputStream out = new JarOutputStream(Files.newOutputStream(plugin))) {
+      final JarEntry entry = new JarEntry(NESTED_JAR);
+      entry.setMethod(JarEntry.STORED);
+      entry.setSize(nestedJar.length);
+      final CRC32 crc = new CRC32();
+      crc.update(nestedJar);
+      entry.setCrc(crc.getValue());
+      out.putNextEntry(entry);
+      out.write(nestedJar);
+      out.closeEntry();
+    }
+  }
+
+  @Test
+  void reloadKeepsFileDescriptorsAndHeapStable() throws IOException {
+    assumeTrue(Files.isDirectory(Paths.get("/proc/self/fd")), "needs /proc/self/fd");
+    long baselineFds = 0;
+    long baselineHeap = 0;
+    for (int i = 0; i < RELOADS; i++) {
+      if (i == WARMUP) {
+        baselineFds = countOpenFileDescriptors();
+        baselineHeap = usedHeap();
+      }
+      reload();
+    }
+    final long fds = countOpenFileDescriptors();
+    final long heap = usedHeap();
+    assertTrue(fds <= baselineFds + 2, "file descriptors grew from " + baselineFds + " to " + fds);
+    assertTrue(heap <= baselineHeap + 16 * 1024 * 1024, "heap grew from " + baselineHeap + " to " + heap);
+  }
+
+  @Test
+  void closingOneLoaderKeepsSharedRootJarFileOpen() throws IOException {
+    final LaunchedURLClassLoader first = open();
+    final LaunchedURLClassLoader second = open();
+    final Handler handler = new Handler();
+    final JarFile rootJarFile = handler.getRootJarFileFromUrl(rootCachedUrl());
+    first.close();
+    assertSame(rootJarFile, handler.getRootJarFileFromUrl(rootCachedUrl()));
+    assertEquals("hello", readString(rootCachedUrl()));
+    second.close();
+  }
+
+  private void reload() throws IOException {
+    final LaunchedURLClassLoader classLoader = open();
+    try {
+      final URL resource = classLoader.getResource(RESOURCE);
+      assertNotNull(resource);
+      assertEquals("hello", readString(resource));
+      assertEquals("hello", readString(rootCachedUrl()));
+    } finally {
+      classLoader.close();
+    }
+  }
+
+  private LaunchedURLClassLoader open() throws IOException {
+    final JarFileArchive archive = new JarFileArchive(plugin.toFile());
+    final LaunchedURLClassLoader classLoader = new LaunchedURLClassLoader(archive, new URL[0], null);
+    archive.forEachNestedArchive(Collections.<String, Consumer<Archive>>singletonMap(
+        "META-INF/hcloader/delegate/", nestedArchive -> {
+          try {
+            classLoader.addURL(nestedArchive.getUrl());
+          } catch (final IOException e) {
+            throw new IllegalStateException(e);
+          }
+          classLoader.addManagedArchive(nestedArchive);
+        }));
+    return classLoader;
+  }
+
+  /**
+   * A URL parsed from its string form with a plain {@link Handler}, which goes through the cached root jar file.
+   */
+  private URL rootCachedUrl() throws IOException {
+    return new URL(null, "jar:" + plugin.toUri() + "!/" + NESTED_JAR + "!/" + RESOURCE, new Handler());
+  }
+
+  private static String readString(final URL url) throws IOException {
+    try (final InputStream in = url.openStream()) {
+      return readString(in);
+    }
+  }
+
+  private static String readString(final InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[256];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static long countOpenFileDescriptors() throws IOException {
+    try (final Stream<Path> fds = Files.list(Paths.get("/proc/self/fd"))) {
+      return fds.count();
+    }
+  }
+
+  private static long usedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,82 @@
+package ink.bgp.hcloader;
+
+import ink.bgp.hcloader.glob.GlobPattern;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Reading {@code META-INF/hcloader/delegateconfig} in the versioned formats.
+ */
+class LoadConfigEntryTests {
+  @Test
+  void readsPolicyOrdinal() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = header(bytes, LoadConfigEntry.CONFIG_VERSION, LoadPolicy.values().length);
+    for (final LoadPolicy policy : LoadPolicy.values()) {
+      out.writeInt(policy.ordinal());
+      out.writeByte(policy.ordinal());
+      writeGlob(out, "a/" + policy.name() + "/**");
+    }
+    final List<LoadConfigEntry> entries = LoadConfigEntry.read(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(LoadPolicy.values().length, entries.size());
+    for (final LoadConfigEntry entry : entries) {
+      assertEquals("a/" + entry.policy().name() + "/**", entry.globPattern());
+      assertEquals(LoadPolicy.values()[entry.priority()], entry.policy());
+    }
+  }
+
+  @Test
+  void rejectsUnknownPolicyOrdinal() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = header(bytes, LoadConfigEntry.CONFIG_VERSION, 1);
+    out.writeInt(0);
+    out.writeByte(LoadPolicy.values().length);
+    writeGlob(out, "a/**");
+    assertThrows(IllegalStateException.class,
+        () -> LoadConfigEntry.read(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+
+  @Test
+  void rejectsOtherVersion() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    header(bytes, LoadConfigEntry.CONFIG_VERSION - 1, 0);
+    assertThrows(IOException.class, () -> LoadConfigEntry.read(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+
+  @Test
+  void readsLegacyFormat() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(1);
+    out.writeInt(7);
+    out.writeUTF("a/**");
+    out.writeUTF("SELF_FIRST");
+    final List<LoadConfigEntry> entries = LoadConfigEntry.read(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(Collections.singletonList(LoadConfigEntry.of(7, "a/**", LoadPolicy.SELF_FIRST)), entries);
+  }
+
+  private static DataOutputStream header(
+      final ByteArrayOutputStream bytes,
+      final int version,
+      final int size) throws IOException {
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(LoadConfigEntry.CONFIG_MAGIC);
+    out.writeInt(version);
+    out.writeInt(size);
+    return out;
+  }
+
+  private static void writeGlob(final DataOutputStream out, final String glob) throws IOException {
+    out.writeUTF(glob);
+    GlobPattern.writeCompiled(glob, out);
+  }
+}
@@ -0,0 +1,39 @@
+package ink.bgp.hcloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Adding rules to a {@link LoadConfigTable}, which keeps them sorted and without duplicates.
+ */
+class LoadConfigTableTests {
+  private static final LoadConfigEntry A = LoadConfigEntry.of(0, "a/**", LoadPolicy.SELF_FIRST);
+  private static final LoadConfigEntry B = LoadConfigEntry.of(0, "b/**", LoadPolicy.SELF_FIRST);
+  private static final LoadConfigEntry C = LoadConfigEntry.of(1, "a/**", LoadPolicy.PARENT_FIRST);
+  private static final LoadConfigEntry D = LoadConfigEntry.of(1, "a/**", LoadPolicy.FORBIDDEN);
+
+  @Test
+  void mergesSortedRules() {
+    final LoadConfigTable table = LoadConfigTable.EMPTY.with(Arrays.asList(A, C));
+    assertArrayEquals(new LoadConfigEntry[]{A, C}, table.entries());
+    assertArrayEquals(new LoadConfigEntry[]{A, B, C, D}, table.with(Arrays.asList(B, C, D)).entries());
+  }
+
+  @Test
+  void sortsRulesInOtherOrder() {
+    final LoadConfigTable table = LoadConfigTable.EMPTY.with(Arrays.asList(D, B, A, B, C));
+    assertArrayEquals(new LoadConfigEntry[]{A, B, C, D}, table.entries());
+  }
+
+  @Test
+  void keepsTableWithoutNewRules() {
+    final LoadConfigTable table = LoadConfigTable.EMPTY.with(Arrays.asList(A, B));
+    assertSame(table, table.with(Arrays.asList(B, A)));
+    assertSame(table, table.with(Collections.singletonList(LoadConfigEntry.of(0, "a/**", LoadPolicy.SELF_FIRST))));
+  }
+}
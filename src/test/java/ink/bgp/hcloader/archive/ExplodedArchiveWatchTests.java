@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.archive;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ink.bgp.hcloader.archive.Archive.Entry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for the watch index of {@link ExplodedArchive}.
+ */
+class ExplodedArchiveWatchTests {
+
+	private static final String DELEGATE = "META-INF/hcloader/delegate/";
+
+	private static final int OPERATIONS = 5000;
+
+	private static final long CONVERGE_TIMEOUT_MILLIS = 30000;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void indexConvergesToWalkAfterChurn() throws Exception {
+		Path root = this.tempDir.resolve("root");
+		Files.createDirectories(root.resolve("a/b"));
+		Files.createFile(root.resolve("a/b/c.class"));
+		try (ExplodedArchive watched = new ExplodedArchive(root.toFile(), true, true)) {
+			assertEquals(walk(root), names(watched));
+			AtomicBoolean done = new AtomicBoolean();
+			AtomicReference<Throwable> failure = new AtomicReference<>();
+			Thread churn = new Thread(() -> {
+				try {
+					churn(root, new Random(31));
+				}
+				catch (Throwable ex) {
+					failure.set(ex);
+				}
+				finally {
+					done.set(true);
+				}
+			}, "churn");
+			churn.start();
+			while (!done.get()) {
+				// Read while the tree changes, the results only have to be consistent later
+				names(watched);
+			}
+			churn.join();
+			assertNull(failure.get());
+			List<String> expected = walk(root);
+			long deadline = System.currentTimeMillis() + CONVERGE_TIMEOUT_MILLIS;
+			List<String> actual = names(watched);
+			while (!expected.equals(actual) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+				actual = names(watched);
+			}
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	void nestedArchivesAreDirectChildrenOfPrefix() throws Exception {
+		Path root = this.tempDir.resolve("root");
+		Path delegate = root.resolve(DELEGATE);
+		Files.createDirectories(delegate.resolve("classes/x"));
+		Files.createFile(delegate.resolve("classes/x/X.class"));
+		Files.createFile(delegate.resolve("b.jar"));
+		Files.createFile(delegate.resolve("a.jar"));
+		List<String> expected = Arrays.asList("a.jar", "b.jar", "classes/");
+		try (ExplodedArchive walked = new ExplodedArchive(root.toFile(), true, false);
+				ExplodedArchive watched = new ExplodedArchive(root.toFile(), true, true)) {
+			assertEquals(expected, nestedArchives(walked, delegate));
+			assertEquals(expected, nestedArchives(watched, delegate));
+			Files.createFile(delegate.resolve("c.jar"));
+			List<String> added = Arrays.asList("a.jar", "b.jar", "c.jar", "classes/");
+			assertEquals(added, nestedArchives(walked, delegate));
+			long deadline = System.currentTimeMillis() + CONVERGE_TIMEOUT_MILLIS;
+			while (!added.equals(nestedArchives(watched, delegate)) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertEquals(added, nestedArchives(watched, delegate));
+		}
+	}
+
+	private static void churn(Path root, Random random) throws IOException {
+		List<Path> directories = new ArrayList<>();
+		directories.add(root);
+		for (int i = 0; i < OPERATIONS; i++) {
+			Path directory = directories.get(random.nextInt(directories.size()));
+			Path path = directory.resolve("f" + random.nextInt(8));
+			switch (random.nextInt(4)) {
+			case 0:
+				if (Files.notExists(path)) {
+					Files.createDirectories(path);
+					directories.add(path);
+				}
+				break;
+			case 1:
+				if (Files.notExists(path)) {
+					Files.createFile(path);
+				}
+				break;
+			default:
+				if (!directory.equals(root) && random.nextInt(4) == 0) {
+					delete(directory);
+					directories.removeIf((candidate) -> candidate.startsWith(directory));
+				}
+				else if (Files.isRegularFile(path)) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	private static void delete(Path path) throws IOException {
+		if (Files.isDirectory(path)) {
+			List<Path> children = new ArrayList<>();
+			try (Stream<Path> stream = Files.list(path)) {
+				stream.forEach(children::add);
+			}
+			for (Path child : children) {
+				delete(child);
+			}
+		}
+		Files.delete(path);
+	}
+
+	private static List<String> walk(Path root) throws Exception {
+		try (ExplodedArchive walked = new ExplodedArchive(root.toFile(), true, false)) {
+			return names(walked);
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private static List<String> names(ExplodedArchive archive) {
+		List<String> names = new ArrayList<>();
+		Iterator<Entry> entries = archive.iterator();
+		entries.forEachRemaining((entry) -> names.add(entry.getName()));
+		return names;
+	}
+
+	private static List<String> nestedArchives(ExplodedArchive archive, Path directory) throws IOException {
+		List<String> names = new ArrayList<>();
+		Consumer<Archive> consumer = (nested) -> {
+			try {
+				URL url = nested.getUrl();
+				Path path = Paths.get(url.toURI());
+				names.add(directory.relativize(path) + (Files.isDirectory(path) ? "/" : ""));
+			}
+			catch (Exception ex) {
+				throw new IllegalStateException(ex);
+			}
+		};
+		archive.forEachNestedArchive(Collections.singletonMap(DELEGATE, consumer));
+		return names;
+	}
+
+}
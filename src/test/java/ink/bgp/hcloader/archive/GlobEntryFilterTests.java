@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link GlobEntryFilter}.
+ */
+class GlobEntryFilterTests {
+
+	@TempDir
+	Path tempDir;
+
+	private JarFileArchive archive;
+
+	@BeforeEach
+	void setup() throws IOException {
+		Path file = this.tempDir.resolve("archive.jar");
+		byte[] nestedJar = createNestedJar();
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(file))) {
+			for (String name : Arrays.asList("lib/a.jar", "lib/b.jar", "libs/c.jar", "we*rd/d.jar", "weird/e.jar")) {
+				writeStored(out, name, nestedJar);
+			}
+		}
+		this.archive = new JarFileArchive(file.toFile());
+	}
+
+	@Test
+	void startingWithMatchesPrefix() throws Exception {
+		try (JarFileArchive archive = this.archive) {
+			assertEquals(Arrays.asList("lib/a.jar", "lib/b.jar"),
+					getNestedArchives(archive, GlobEntryFilter.startingWith("lib/")));
+		}
+	}
+
+	@Test
+	void startingWithMatchesGlobSymbolsLiterally() throws Exception {
+		try (JarFileArchive archive = this.archive) {
+			assertEquals(Arrays.asList("we*rd/d.jar"), getNestedArchives(archive, GlobEntryFilter.startingWith("we*rd/")));
+		}
+	}
+
+	private static List<String> getNestedArchives(JarFileArchive archive, GlobEntryFilter filter) throws Exception {
+		List<String> names = new ArrayList<>();
+		Iterator<Archive> nestedArchives = archive.getNestedArchives(filter, null);
+		while (nestedArchives.hasNext()) {
+			try (Archive nestedArchive = nestedArchives.next()) {
+				String url = nestedArchive.getUrl().toString();
+				names.add(url.substring(url.indexOf("!/") + 2, url.length() - 2));
+			}
+		}
+		return names;
+	}
+
+	private static void writeStored(JarOutputStream out, String name, byte[] content) throws IOException {
+		JarEntry entry = new JarEntry(name);
+		entry.setMethod(JarEntry.STORED);
+		entry.setSize(content.length);
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		entry.setCrc(crc.getValue());
+		out.putNextEntry(entry);
+		out.write(content);
+		out.closeEntry();
+	}
+
+	private static byte[] createNestedJar() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (JarOutputStream out = new JarOutputStream(bytes)) {
+			out.putNextEntry(new JarEntry("a.txt"));
+			out.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+}
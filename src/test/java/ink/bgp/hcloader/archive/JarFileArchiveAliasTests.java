@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for nested jars that {@link JarFileArchive} opens through an
+ * {@link JarFileArchive#ALIAS_MARKER alias} of the stored copy.
+ */
+class JarFileArchiveAliasTests {
+
+	private static final String DELEGATE = "META-INF/hcloader/delegate/";
+
+	private static final String STORED = DELEGATE + "a.jar";
+
+	private static final String ALIAS = DELEGATE + "b.jar";
+
+	@TempDir
+	Path tempDir;
+
+	private byte[] nestedJar;
+
+	@BeforeEach
+	void setup() throws IOException {
+		this.nestedJar = createNestedJar();
+	}
+
+	@Test
+	void opensAliasAsStoredJar() throws Exception {
+		try (JarFileArchive archive = createArchive(STORED, false)) {
+			assertOpensStoredJarTwice(archive, null);
+		}
+	}
+
+	@Test
+	void opensAliasAsStoredJarWithIndex() throws Exception {
+		try (JarFileArchive archive = createArchive(STORED, true)) {
+			NestedJarIndex index = archive.getNestedJarIndex();
+			assertNotNull(index);
+			assertEquals(Arrays.asList(STORED, ALIAS), index.getNestedJars(DELEGATE));
+			assertOpensStoredJarTwice(archive, index);
+		}
+	}
+
+	@Test
+	void opensAliasFoundByGlob() throws Exception {
+		try (JarFileArchive archive = createArchive(STORED, false)) {
+			List<String> entries = new ArrayList<>();
+			Iterator<Archive> nestedArchives = archive.getNestedArchives(GlobEntryFilter.of(DELEGATE + "b.*"), null);
+			while (nestedArchives.hasNext()) {
+				try (Archive nestedArchive = nestedArchives.next()) {
+					entries.addAll(getEntryNames(nestedArchive));
+				}
+			}
+			assertEquals(Collections.singletonList("a/A.class"), entries);
+		}
+	}
+
+	@Test
+	void failsOnDanglingAlias() throws Exception {
+		try (JarFileArchive archive = createArchive(DELEGATE + "missing.jar", false)) {
+			IOException ex = assertThrows(IOException.class, () -> archive
+				.forEachNestedArchive(Collections.singletonMap(DELEGATE, (Consumer<Archive>) (nested) -> {
+				})));
+			assertTrue(ex.getMessage().contains(ALIAS));
+			assertTrue(ex.getMessage().contains("archive.jar"));
+		}
+	}
+
+	@Test
+	void failsOnDanglingAliasWithIndex() throws Exception {
+		try (JarFileArchive archive = createArchive(DELEGATE + "missing.jar", true)) {
+			IOException ex = assertThrows(IOException.class, archive::getNestedJarIndex);
+			assertTrue(ex.getMessage().contains(ALIAS));
+			assertTrue(ex.getMessage().contains("archive.jar"));
+		}
+	}
+
+	private void assertOpensStoredJarTwice(JarFileArchive archive, NestedJarIndex index) throws Exception {
+		List<Archive> nestedArchives = new ArrayList<>();
+		archive.forEachNestedArchive(Collections.singletonMap(DELEGATE, nestedArchives::add), index);
+		assertEquals(2, nestedArchives.size());
+		for (Archive nestedArchive : nestedArchives) {
+			try (Archive closing = nestedArchive) {
+				assertEquals(Collections.singletonList("a/A.class"), getEntryNames(closing));
+				assertTrue(closing.getUrl().toString().endsWith("!/" + STORED + "!/"));
+			}
+		}
+	}
+
+	private static List<String> getEntryNames(Archive archive) {
+		List<String> names = new ArrayList<>();
+		for (Archive.Entry entry : archive) {
+			if (!entry.isDirectory() && !entry.getName().startsWith("META-INF/")) {
+				names.add(entry.getName());
+			}
+		}
+		return names;
+	}
+
+	private JarFileArchive createArchive(String aliasTarget, boolean withIndex) throws IOException {
+		Path file = this.tempDir.resolve("archive.jar");
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(file))) {
+			if (withIndex) {
+				writeStored(out, NestedJarIndex.ENTRY_NAME, createIndex());
+			}
+			writeStored(out, STORED, this.nestedJar);
+			JarEntry alias = new JarEntry(ALIAS);
+			alias.setComment(JarFileArchive.ALIAS_MARKER + aliasTarget);
+			writeStored(out, alias, new byte[0]);
+		}
+		return new JarFileArchive(file.toFile());
+	}
+
+	private byte[] createIndex() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(NestedJarIndex.INDEX_MAGIC);
+		out.writeInt(NestedJarIndex.INDEX_VERSION);
+		out.writeInt(1);
+		out.writeUTF(DELEGATE);
+		out.writeInt(2);
+		for (String name : Arrays.asList(STORED, ALIAS)) {
+			// the plugin records the content the alias stands for
+			out.writeUTF(name);
+			out.writeLong(crc(this.nestedJar));
+			out.writeLong(this.nestedJar.length);
+			out.writeInt(1);
+			out.writeUTF("a");
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeStored(JarOutputStream out, String name, byte[] content) throws IOException {
+		writeStored(out, new JarEntry(name), content);
+	}
+
+	private static void writeStored(JarOutputStream out, JarEntry entry, byte[] content) throws IOException {
+		entry.setMethod(JarEntry.STORED);
+		entry.setSize(content.length);
+		entry.setCrc(crc(content));
+		out.putNextEntry(entry);
+		out.write(content);
+		out.closeEntry();
+	}
+
+	private static byte[] createNestedJar() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (JarOutputStream out = new JarOutputStream(bytes)) {
+			out.putNextEntry(new JarEntry("a/A.class"));
+			out.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static long crc(byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		return crc.getValue();
+	}
+
+}
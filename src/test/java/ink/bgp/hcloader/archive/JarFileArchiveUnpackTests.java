@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the unpack cache of {@link JarFileArchive}.
+ */
+class JarFileArchiveUnpackTests {
+
+	private static final String PREFIX = "META-INF/hcloader/shared/";
+
+	@TempDir
+	Path tempDir;
+
+	private Path unpackDirectory;
+
+	private File archive;
+
+	private byte[] nestedJar;
+
+	@BeforeEach
+	void setup() throws IOException {
+		this.unpackDirectory = Files.createDirectory(this.tempDir.resolve("unpack"),
+				PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		System.setProperty("hcloader.unpack.dir", this.unpackDirectory.toString());
+		this.nestedJar = createNestedJar();
+		this.archive = this.tempDir.resolve("outer.jar").toFile();
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(this.archive.toPath()))) {
+			JarEntry entry = new JarEntry(PREFIX + "nested.jar");
+			entry.setMethod(JarEntry.STORED);
+			entry.setSize(this.nestedJar.length);
+			CRC32 crc = new CRC32();
+			crc.update(this.nestedJar);
+			entry.setCrc(crc.getValue());
+			out.putNextEntry(entry);
+			out.write(this.nestedJar);
+			out.closeEntry();
+		}
+	}
+
+	@AfterEach
+	void cleanup() {
+		System.clearProperty("hcloader.unpack.dir");
+	}
+
+	@Test
+	void unpacksIntoConfiguredDirectory() throws IOException {
+		Path unpacked = unpack();
+		assertEquals(this.unpackDirectory, unpacked.getParent().getParent());
+		assertArrayEquals(this.nestedJar, Files.readAllBytes(unpacked));
+		assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(unpacked)));
+	}
+
+	@Test
+	void replacesTamperedFileOfSameSize() throws IOException {
+		Path unpacked = unpack();
+		byte[] tampered = new byte[this.nestedJar.length];
+		Files.write(unpacked, tampered);
+		Files.setLastModifiedTime(unpacked, FileTime.fromMillis(0));
+		assertEquals(unpacked, unpack());
+		assertArrayEquals(this.nestedJar, Files.readAllBytes(unpacked));
+	}
+
+	@Test
+	void replacesFileWritableByOthers() throws IOException {
+		Path unpacked = unpack();
+		Files.setPosixFilePermissions(unpacked, PosixFilePermissions.fromString("rw-rw-rw-"));
+		Files.setLastModifiedTime(unpacked, FileTime.fromMillis(0));
+		unpack();
+		assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(unpacked)));
+	}
+
+	@Test
+	void trustsVerifiedMarkerWithoutReadingFile() throws IOException {
+		Path unpacked = unpack();
+		byte[] unread = new byte[this.nestedJar.length];
+		markAsVerified(unpacked, unread);
+		unpack();
+		assertArrayEquals(unread, Files.readAllBytes(unpacked));
+	}
+
+	@Test
+	void ignoresVerifiedMarkerWritableByOthers() throws IOException {
+		Path unpacked = unpack();
+		Path marker = markAsVerified(unpacked, new byte[this.nestedJar.length]);
+		Files.setPosixFilePermissions(marker, PosixFilePermissions.fromString("rw-rw-rw-"));
+		unpack();
+		assertArrayEquals(this.nestedJar, Files.readAllBytes(unpacked));
+	}
+
+	@Test
+	void rejectsDirectoryWritableByOthers() throws IOException {
+		Files.setPosixFilePermissions(this.unpackDirectory, PosixFilePermissions.fromString("rwxrwxrwx"));
+		assertThrows(IOException.class, this::unpack);
+	}
+
+	@Test
+	void rejectsSymbolicLinkAsDirectory() throws IOException {
+		Path link = Files.createSymbolicLink(this.tempDir.resolve("link"), this.unpackDirectory);
+		System.setProperty("hcloader.unpack.dir", link.toString());
+		assertThrows(IOException.class, this::unpack);
+	}
+
+	/**
+	 * Replace the unpacked file with the given content and a new last modified time, and
+	 * update its marker the way an earlier launch that checked it would have.
+	 */
+	private Path markAsVerified(Path unpacked, byte[] content) throws IOException {
+		Path marker = unpacked.resolveSibling(unpacked.getFileName() + ".verified");
+		FileTime verifiedTime = Files.getLastModifiedTime(unpacked);
+		String verified = new String(Files.readAllBytes(marker), StandardCharsets.UTF_8);
+		assertTrue(verified.contains(verifiedTime.toString()));
+		FileTime time = FileTime.fromMillis(verifiedTime.toMillis() - 60000);
+		Files.write(unpacked, content);
+		Files.setLastModifiedTime(unpacked, time);
+		Files.write(marker, verified.replace(verifiedTime.toString(), time.toString()).getBytes(StandardCharsets.UTF_8));
+		return marker;
+	}
+
+	private Path unpack() throws IOException {
+		List<Path> unpacked = new ArrayList<>();
+		try (JarFileArchive jarFileArchive = new JarFileArchive(this.archive)) {
+			jarFileArchive.forEachUnpackedNestedArchive(PREFIX, unpacked::add);
+		}
+		assertEquals(1, unpacked.size());
+		return unpacked.get(0);
+	}
+
+	private static byte[] createNestedJar() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (JarOutputStream out = new JarOutputStream(bytes)) {
+			out.putNextEntry(new JarEntry("a/b/C.class"));
+			OutputStream entry = out;
+			entry.write(new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE });
+			out.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link NestedJarIndex} and {@link JarFileArchive#getNestedJarIndex()}.
+ */
+class NestedJarIndexTests {
+
+	private static final String DELEGATE = "META-INF/hcloader/delegate/";
+
+	private static final String SHARED = "META-INF/hcloader/shared/";
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void usesIndexThatMatchesArchive() throws IOException {
+		Map<String, byte[]> nestedJars = new LinkedHashMap<>();
+		nestedJars.put(DELEGATE + "a.jar", createNestedJar("a/A.class"));
+		nestedJars.put(DELEGATE + "b.jar", createNestedJar("b/B.class"));
+		try (JarFileArchive archive = createArchive(nestedJars, nestedJars)) {
+			NestedJarIndex index = archive.getNestedJarIndex();
+			assertNotNull(index);
+			assertEquals(Arrays.asList(DELEGATE + "a.jar", DELEGATE + "b.jar"), index.getNestedJars(DELEGATE));
+		}
+	}
+
+	@Test
+	void ignoresIndexWhenNestedJarWasChanged() throws IOException {
+		Map<String, byte[]> indexed = Collections.singletonMap(DELEGATE + "a.jar", createNestedJar("a/A.class"));
+		Map<String, byte[]> nestedJars = Collections.singletonMap(DELEGATE + "a.jar", createNestedJar("a/Other.class"));
+		try (JarFileArchive archive = createArchive(indexed, nestedJars)) {
+			assertNull(archive.getNestedJarIndex());
+		}
+	}
+
+	@Test
+	void ignoresIndexWhenNestedJarWasAdded() throws IOException {
+		Map<String, byte[]> indexed = Collections.singletonMap(DELEGATE + "a.jar", createNestedJar("a/A.class"));
+		Map<String, byte[]> nestedJars = new LinkedHashMap<>(indexed);
+		nestedJars.put(DELEGATE + "b.jar", createNestedJar("b/B.class"));
+		try (JarFileArchive archive = createArchive(indexed, nestedJars)) {
+			assertNull(archive.getNestedJarIndex());
+		}
+	}
+
+	@Test
+	void ignoresIndexWhenNestedJarWasAddedToEmptyDirectory() throws IOException {
+		Map<String, byte[]> indexed = Collections.singletonMap(DELEGATE + "a.jar", createNestedJar("a/A.class"));
+		Map<String, byte[]> nestedJars = new LinkedHashMap<>(indexed);
+		nestedJars.put(SHARED + "s.jar", createNestedJar("s/S.class"));
+		try (JarFileArchive archive = createArchive(indexed, nestedJars)) {
+			assertNull(archive.getNestedJarIndex());
+		}
+	}
+
+	@Test
+	void recordsVersionedEntriesInTheirLookupPackage() throws IOException {
+		Map<String, byte[]> nestedJars = Collections.singletonMap(DELEGATE + "a.jar",
+				createNestedJar("META-INF/versions/11/a/A.class"));
+		try (JarFileArchive archive = createArchive(nestedJars, nestedJars)) {
+			NestedJarIndex index = archive.getNestedJarIndex();
+			assertNotNull(index);
+			assertTrue(index.getPackages(DELEGATE).contains(NestedJarIndex.getPackageName("a/A.class")));
+		}
+	}
+
+	@Test
+	void getEntryPackageNameStripsVersionDirectory() {
+		assertEquals("com/example", NestedJarIndex.getEntryPackageName("META-INF/versions/9/com/example/Foo.class"));
+		assertEquals("com", NestedJarIndex.getEntryPackageName("META-INF/versions/17/com/example/"));
+		assertEquals("", NestedJarIndex.getEntryPackageName("META-INF/versions/11/module-info.class"));
+		assertEquals("META-INF/versions", NestedJarIndex.getEntryPackageName("META-INF/versions/11/"));
+		assertEquals("META-INF/versions/x", NestedJarIndex.getEntryPackageName("META-INF/versions/x/Foo.class"));
+		assertEquals("com/example", NestedJarIndex.getEntryPackageName("com/example/Foo.class"));
+	}
+
+	private JarFileArchive createArchive(Map<String, byte[]> indexed, Map<String, byte[]> nestedJars)
+			throws IOException {
+		Path file = this.tempDir.resolve("archive.jar");
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(file))) {
+			writeStored(out, NestedJarIndex.ENTRY_NAME, createIndex(indexed));
+			for (Map.Entry<String, byte[]> nestedJar : nestedJars.entrySet()) {
+				writeStored(out, nestedJar.getKey(), nestedJar.getValue());
+			}
+		}
+		return new JarFileArchive(file.toFile());
+	}
+
+	private static byte[] createIndex(Map<String, byte[]> indexed) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(NestedJarIndex.INDEX_MAGIC);
+		out.writeInt(NestedJarIndex.INDEX_VERSION);
+		out.writeInt(2);
+		out.writeUTF(DELEGATE);
+		out.writeUTF(SHARED);
+		out.writeInt(indexed.size());
+		for (Map.Entry<String, byte[]> nestedJar : indexed.entrySet()) {
+			out.writeUTF(nestedJar.getKey());
+			out.writeLong(crc(nestedJar.getValue()));
+			out.writeLong(nestedJar.getValue().length);
+			// the packages as the gradle plugin records them
+			Set<String> packages = new TreeSet<>();
+			try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(nestedJar.getValue()))) {
+				JarEntry entry;
+				while ((entry = in.getNextJarEntry()) != null) {
+					packages.add(NestedJarIndex.getEntryPackageName(entry.getName()));
+				}
+			}
+			out.writeInt(packages.size());
+			for (String packageName : packages) {
+				out.writeUTF(packageName);
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeStored(JarOutputStream out, String name, byte[] content) throws IOException {
+		JarEntry entry = new JarEntry(name);
+		entry.setMethod(JarEntry.STORED);
+		entry.setSize(content.length);
+		entry.setCrc(crc(content));
+		out.putNextEntry(entry);
+		out.write(content);
+		out.closeEntry();
+	}
+
+	private static byte[] createNestedJar(String entryName) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (JarOutputStream out = new JarOutputStream(bytes)) {
+			out.putNextEntry(new JarEntry(entryName));
+			out.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static long crc(byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		return crc.getValue();
+	}
+
+}
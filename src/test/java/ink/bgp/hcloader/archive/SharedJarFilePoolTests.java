@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ink.bgp.hcloader.SharedJarFileRegistry;
+import ink.bgp.hcloader.jar.JarFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for {@link SharedJarFilePool}.
+ */
+class SharedJarFilePoolTests {
+
+	@TempDir
+	Path tempDir;
+
+	private Path file;
+
+	@BeforeEach
+	void setup() throws IOException {
+		this.file = this.tempDir.resolve("pooled.jar");
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(this.file))) {
+			for (int i = 0; i < 20; i++) {
+				out.putNextEntry(new JarEntry("a/" + i + ".txt"));
+				out.write(i);
+				out.closeEntry();
+			}
+			out.setComment("pooled");
+		}
+	}
+
+	@AfterEach
+	void resetRegistry() {
+		SharedJarFilePool.setRegistry(SharedJarFileRegistry.class);
+	}
+
+	@Test
+	void opensFromSharedIndex() throws IOException {
+		try (JarFile parsed = SharedJarFilePool.open("shared", this.file.toFile());
+				JarFile restored = SharedJarFilePool.open("shared", this.file.toFile())) {
+			assertNotSame(parsed, restored);
+			Object[] parsedEntries = (Object[]) parsed.getCentralDirectoryIndex()[0];
+			Object[] restoredEntries = (Object[]) restored.getCentralDirectoryIndex()[0];
+			for (int i = 0; i < parsedEntries.length; i++) {
+				assertSame(parsedEntries[i], restoredEntries[i]);
+			}
+			assertEquals(getNames(parsed), getNames(restored));
+			assertEquals("pooled", restored.getComment());
+			for (int i = 0; i < 20; i++) {
+				try (InputStream in = restored.getInputStream(restored.getEntry("a/" + i + ".txt"))) {
+					assertEquals(i, in.read());
+				}
+			}
+		}
+		finally {
+			SharedJarFilePool.release("shared");
+			SharedJarFilePool.release("shared");
+		}
+	}
+
+	@Test
+	void dropsIndexOnceReleased() throws IOException {
+		SharedJarFilePool.open("released", this.file.toFile()).close();
+		SharedJarFilePool.open("released", this.file.toFile()).close();
+		SharedJarFilePool.release("released");
+		assertNotNull(SharedJarFileRegistry.acquire("released"));
+		SharedJarFileRegistry.release("released");
+		SharedJarFilePool.release("released");
+		assertNull(SharedJarFileRegistry.acquire("released"));
+	}
+
+	@Test
+	void sharesIndexThroughRegistryOfAnotherClassLoader() throws Exception {
+		URL location = SharedJarFileRegistry.class.getProtectionDomain().getCodeSource().getLocation();
+		try (URLClassLoader classLoader = new URLClassLoader(new URL[] { location }, null)) {
+			Class<?> registryClass = classLoader.loadClass(SharedJarFileRegistry.class.getName());
+			assertNotSame(SharedJarFileRegistry.class, registryClass);
+			SharedJarFilePool.setRegistry(registryClass);
+			SharedJarFilePool.open("foreign", this.file.toFile()).close();
+			Method acquire = registryClass.getMethod("acquire", String.class);
+			assertNotNull(acquire.invoke(null, "foreign"));
+			assertNull(SharedJarFileRegistry.acquire("foreign"));
+			try (JarFile restored = SharedJarFilePool.open("foreign", this.file.toFile())) {
+				assertEquals(20, getNames(restored).size());
+			}
+		}
+	}
+
+	@Test
+	void keyChangesWithUnpackedFile() throws IOException {
+		JarEntry entry = new JarEntry("nested.jar");
+		entry.setCrc(0x1234);
+		entry.setSize(Files.size(this.file));
+		String key = SharedJarFilePool.getKey(entry, this.file);
+		assertEquals(key, SharedJarFilePool.getKey(entry, this.file));
+		Files.setLastModifiedTime(this.file, FileTime.fromMillis(Files.getLastModifiedTime(this.file).toMillis() - 10000));
+		assertNotEquals(key, SharedJarFilePool.getKey(entry, this.file));
+		JarEntry other = new JarEntry("nested.jar");
+		other.setCrc(0x4321);
+		other.setSize(entry.getSize());
+		assertNotEquals(SharedJarFilePool.getKey(entry, this.file), SharedJarFilePool.getKey(other, this.file));
+	}
+
+	private static List<String> getNames(JarFile jarFile) {
+		List<String> names = new ArrayList<>();
+		for (JarEntry entry : Collections.list(jarFile.entries())) {
+			names.add(entry.getName());
+		}
+		return names;
+	}
+
+}
@@ -0,0 +1,136 @@
+package ink.bgp.hcloader.glob;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Differential tests of the star-backtrack {@link GlobEngine} against the branch stack matcher it replaced.
+ * Every wildcard-folded pattern over a small alphabet is matched against every string over a small alphabet,
+ * which covers every way wildcards, match-one symbols and case folding can line up at these lengths.
+ */
+class GlobEngineTests {
+
+    private static final char[] PATTERN_SYMBOLS = {'a', 'b', 'A', '*', '?'};
+    private static final char[] STRING_SYMBOLS = {'a', 'b', 'B'};
+    private static final int MAX_PATTERN_LENGTH = 5;
+    private static final int MAX_STRING_LENGTH = 7;
+
+    @Test
+    void matchesLikeBranchStackMatcherIgnoringCase() {
+        assertMatchesLikeBranchStackMatcher(false);
+    }
+
+    @Test
+    void matchesLikeBranchStackMatcherCaseSensitive() {
+        assertMatchesLikeBranchStackMatcher(true);
+    }
+
+    @Test
+    void pathologicalPatternMatchesLikeBranchStackMatcher() {
+        final GlobEngine engine = engine("*a*a*a*a*a*a*a*a*b", true);
+        final StringBuilder string = new StringBuilder();
+        for (int i = 0; i < 24; i++) {
+            string.append('a');
+            assertEquals(branchStackMatches(engine, string.toString()), engine.matches(string.toString()));
+        }
+    }
+
+    private static void assertMatchesLikeBranchStackMatcher(final boolean caseSensitive) {
+        final List<String> patterns = enumerate(PATTERN_SYMBOLS, MAX_PATTERN_LENGTH);
+        final List<String> strings = enumerate(STRING_SYMBOLS, MAX_STRING_LENGTH);
+        for (final String pattern : patterns) {
+            if (pattern.contains("**")) {
+                // Compilation folds these into a single wildcard
+                continue;
+            }
+            final GlobEngine engine = engine(pattern, caseSensitive);
+            for (final String string : strings) {
+                if (engine.matches(string) != branchStackMatches(engine, string)) {
+                    assertEquals(branchStackMatches(engine, string), engine.matches(string),
+                            "pattern \"" + pattern + "\" against \"" + string + "\"");
+                }
+            }
+        }
+    }
+
+    private static List<String> enumerate(final char[] symbols, final int maxLength) {
+        final List<String> strings = new ArrayList<>();
+        strings.add("");
+        int start = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            final int end = strings.size();
+            for (int i = start; i < end; i++) {
+                for (final char symbol : symbols) {
+                    strings.add(strings.get(i) + symbol);
+                }
+            }
+            start = end;
+        }
+        return strings;
+    }
+
+    private static GlobEngine engine(final String pattern, final boolean caseSensitive) {
+        final int length = pattern.length();
+        final char[] lowerCase = new char[length];
+        final char[] upperCase = new char[length];
+        final boolean[] wildcard = new boolean[length];
+        final boolean[] matchOne = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            final char c = pattern.charAt(i);
+            wildcard[i] = c == '*';
+            matchOne[i] = c == '?';
+            lowerCase[i] = caseSensitive ? c : Character.toLowerCase(c);
+            upperCase[i] = caseSensitive ? c : Character.toUpperCase(c);
+        }
+        return new GlobEngine(lowerCase, upperCase, wildcard, matchOne, length);
+    }
+
+    /**
+     * The non-greedy branch stack matcher {@link GlobEngine} used before, kept as the reference.  Every wildcard
+     * pushes the branch where it eats one more character and first tries the branch where it matches nothing.
+     */
+    private static boolean branchStackMatches(final GlobEngine engine, final String string) {
+        int[] stack = new int[16];
+        int stackIndex = 0;
+        int charsIndex = 0;
+        int patternIndex = 0;
+
+        while (true) {
+            if (patternIndex != engine.length && engine.wildcard[patternIndex]) {
+                if (charsIndex != string.length()) {
+                    if (stackIndex == stack.length) {
+                        final int[] tmp = new int[stack.length * 2];
+                        System.arraycopy(stack, 0, tmp, 0, stackIndex);
+                        stack = tmp;
+                    }
+                    stack[stackIndex++] = patternIndex;
+                    stack[stackIndex++] = charsIndex + 1;
+                }
+                patternIndex += 1;
+            }
+
+            if (patternIndex == engine.length && charsIndex == string.length()) {
+                return true;
+            }
+
+            if (charsIndex == string.length() || patternIndex == engine.length ||
+                    (!engine.matchOne[patternIndex] &&
+                            string.charAt(charsIndex) != engine.lowerCase[patternIndex] &&
+                            string.charAt(charsIndex) != engine.upperCase[patternIndex])) {
+                if (stackIndex != 0) {
+                    charsIndex = stack[--stackIndex];
+                    patternIndex = stack[--stackIndex];
+                } else {
+                    return false;
+                }
+            } else {
+                patternIndex++;
+                charsIndex++;
+            }
+        }
+    }
+}
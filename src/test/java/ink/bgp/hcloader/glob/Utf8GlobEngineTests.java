@@ -0,0 +1,88 @@
+package ink.bgp.hcloader.glob;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Differential tests of matching UTF-8 bytes with {@link Utf8GlobEngine} against matching the decoded string with
+ * the regular engines.  The alphabets mix one, two and four byte characters, and the patterns also hold the
+ * surrogates of the four byte one on their own.
+ */
+class Utf8GlobEngineTests {
+
+    private static final String GRINNING = "\uD83D\uDE00";
+    private static final String[] PATTERN_SYMBOLS = {"a", "A", "\u00E9", GRINNING, "\uD83D", "\uDE00", "*", "?"};
+    private static final String[] STRING_SYMBOLS = {"a", "\u00E9", GRINNING, "\uD835\uDC00"};
+    private static final int MAX_PATTERN_LENGTH = 4;
+    private static final int MAX_STRING_LENGTH = 4;
+
+    @Test
+    void matchesLikeStringEngine() {
+        assertMatchesLikeStringEngine(GlobPattern.HANDLE_ESCAPES);
+    }
+
+    @Test
+    void matchesLikeStringEngineIgnoringCase() {
+        assertMatchesLikeStringEngine(GlobPattern.HANDLE_ESCAPES | GlobPattern.CASE_INSENSITIVE);
+    }
+
+    @Test
+    void matchOneMatchesOneCharOfSurrogatePair() {
+        final ByteMatchingEngine engine = GlobPattern.compileBytes("a??b");
+        assertTrue(matches(engine, "a" + GRINNING + "b"));
+        assertFalse(matches(engine, "a\u00E9b"));
+        assertFalse(GlobPattern.compileBytes("a?b").matches(utf8("a" + GRINNING + "b"), 0, 6));
+    }
+
+    private static void assertMatchesLikeStringEngine(final int flags) {
+        final List<String> patterns = enumerate(PATTERN_SYMBOLS, MAX_PATTERN_LENGTH);
+        final List<String> strings = enumerate(STRING_SYMBOLS, MAX_STRING_LENGTH);
+        final List<byte[]> encoded = new ArrayList<>(strings.size());
+        for (final String string : strings) {
+            encoded.add(utf8(string));
+        }
+        for (final String pattern : patterns) {
+            final MatchingEngine stringEngine = GlobPattern.compile(pattern, '*', '?', flags);
+            final ByteMatchingEngine byteEngine = GlobPattern.compileBytes(pattern, '*', '?', flags);
+            for (int i = 0; i < strings.size(); i++) {
+                final byte[] bytes = encoded.get(i);
+                if (stringEngine.matches(strings.get(i)) != byteEngine.matches(bytes, 0, bytes.length)) {
+                    assertEquals(stringEngine.matches(strings.get(i)), byteEngine.matches(bytes, 0, bytes.length),
+                            "pattern \"" + pattern + "\" against \"" + strings.get(i) + "\"");
+                }
+            }
+        }
+    }
+
+    private static List<String> enumerate(final String[] symbols, final int maxLength) {
+        final List<String> strings = new ArrayList<>();
+        strings.add("");
+        int start = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            final int end = strings.size();
+            for (int i = start; i < end; i++) {
+                for (final String symbol : symbols) {
+                    strings.add(strings.get(i) + symbol);
+                }
+            }
+            start = end;
+        }
+        return strings;
+    }
+
+    private static boolean matches(final ByteMatchingEngine engine, final String string) {
+        final byte[] bytes = utf8(string);
+        return engine.matches(bytes, 0, bytes.length);
+    }
+
+    private static byte[] utf8(final String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+}
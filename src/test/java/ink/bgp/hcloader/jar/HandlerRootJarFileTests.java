@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.jar;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the root jar file cache of {@link Handler}.
+ */
+class HandlerRootJarFileTests {
+
+	@TempDir
+	Path tempDir;
+
+	private URL url;
+
+	@BeforeEach
+	void setup() throws IOException {
+		Path file = this.tempDir.resolve("root.jar");
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(file))) {
+			out.putNextEntry(new JarEntry("a.txt"));
+			out.closeEntry();
+		}
+		this.url = new URL("jar:" + file.toUri() + "!/a.txt");
+	}
+
+	@Test
+	void keepsRootJarFileOpenWhileHeld() throws IOException {
+		Handler handler = new Handler();
+		Handler.retainRootJarFile(this.url);
+		Handler.retainRootJarFile(this.url);
+		JarFile jarFile = handler.getRootJarFileFromUrl(this.url);
+		Handler.releaseRootJarFile(this.url);
+		assertFalse(jarFile.isClosed());
+		assertSame(jarFile, handler.getRootJarFileFromUrl(this.url));
+		Handler.releaseRootJarFile(this.url);
+		assertTrue(jarFile.isClosed());
+		JarFile reopened = handler.getRootJarFileFromUrl(this.url);
+		assertNotSame(jarFile, reopened);
+		Handler.releaseRootJarFile(this.url);
+	}
+
+	@Test
+	void keepsRootJarFileOpenOnReleaseWithoutHolder() throws IOException {
+		Handler handler = new Handler();
+		JarFile jarFile = handler.getRootJarFileFromUrl(this.url);
+		Handler.releaseRootJarFile(this.url);
+		assertFalse(jarFile.isClosed());
+		assertSame(jarFile, handler.getRootJarFileFromUrl(this.url));
+	}
+
+	@Test
+	void ignoresUnbalancedRelease() throws IOException {
+		Handler handler = new Handler();
+		Handler.retainRootJarFile(this.url);
+		JarFile jarFile = handler.getRootJarFileFromUrl(this.url);
+		Handler.releaseRootJarFile(this.url);
+		assertTrue(jarFile.isClosed());
+		JarFile reopened = handler.getRootJarFileFromUrl(this.url);
+		Handler.releaseRootJarFile(this.url);
+		assertFalse(reopened.isClosed());
+		Handler.retainRootJarFile(this.url);
+		Handler.releaseRootJarFile(this.url);
+		assertTrue(reopened.isClosed());
+	}
+
+}
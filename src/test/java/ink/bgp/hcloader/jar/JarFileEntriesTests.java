@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ink.bgp.hcloader.jar;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the hash code sort of {@link JarFileEntries}.
+ */
+class JarFileEntriesTests {
+
+	private final Random random = new Random(0);
+
+	@Test
+	void sortsRandomHashCodes() {
+		for (int size : new int[] { 0, 1, 2, 3, 255, 256, 257, 5000, 65535 }) {
+			int[] hashCodes = new int[size];
+			for (int i = 0; i < size; i++) {
+				hashCodes[i] = this.random.nextInt();
+			}
+			assertSortsLikeArraysSort(hashCodes, size);
+		}
+	}
+
+	@Test
+	void sortsNegativeHashCodesBeforePositive() {
+		assertSortsLikeArraysSort(new int[] { 1, -1, Integer.MAX_VALUE, 0, Integer.MIN_VALUE, -256, 256, -2 }, 8);
+	}
+
+	@Test
+	void keepsDuplicateHashCodesInOriginalOrder() {
+		int[] hashCodes = new int[2000];
+		for (int i = 0; i < hashCodes.length; i++) {
+			hashCodes[i] = this.random.nextInt(20) - 10;
+		}
+		assertSortsLikeArraysSort(hashCodes, hashCodes.length);
+		assertSortsLikeArraysSort(new int[] { 7, 7, 7, 7 }, 4);
+	}
+
+	@Test
+	void sortsOnlyHashCodesInUse() {
+		int[] hashCodes = new int[1000];
+		for (int i = 0; i < hashCodes.length; i++) {
+			hashCodes[i] = this.random.nextInt();
+		}
+		assertSortsLikeArraysSort(hashCodes, 600);
+		assertSortsLikeArraysSort(new int[] { 3, 2, 1 }, 1);
+	}
+
+	private static void assertSortsLikeArraysSort(int[] hashCodes, int size) {
+		int[] original = hashCodes.clone();
+		int[] expected = Arrays.copyOf(hashCodes, size);
+		Arrays.sort(expected);
+		int[] order = JarFileEntries.sort(hashCodes, size);
+		assertEquals(size, order.length);
+		assertArrayEquals(expected, Arrays.copyOf(hashCodes, size));
+		assertArrayEquals(Arrays.copyOfRange(original, size, original.length),
+				Arrays.copyOfRange(hashCodes, size, hashCodes.length));
+		boolean[] seen = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			assertEquals(expected[i], original[order[i]]);
+			assertTrue(!seen[order[i]], "index " + order[i] + " appears twice");
+			seen[order[i]] = true;
+			if (i > 0 && expected[i - 1] == expected[i]) {
+				assertTrue(order[i - 1] < order[i], "sort is not stable at " + i);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package ink.bgp.hcloader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide registry of the class loaders of shared jars, see {@link StaticInjector}.
+ * <p>
+ * Every plugin carries its own relocated copy of the runtime, so this class is the one class of it that is not
+ * relocated and never loaded by a plugin: {@link StaticInjector} defines it in the common parent of the plugin class
+ * loaders from the bytes of its own copy, and only calls it through method handles. The first copy defined wins, so
+ * its methods must only ever take and return JDK types and keep their signatures, and it must not have nested classes.
+ */
+public final class SharedClassLoaderRegistry {
+  /**
+   * The shared class loaders and how many plugins use them, by parent and digest.
+   */
+  private static final @NotNull Map<@Nullable ClassLoader, @NotNull Map<@NotNull String, Map.@NotNull Entry<@NotNull URLClassLoader, @NotNull Integer>>> registry =
+      new WeakHashMap<>();
+
+  private SharedClassLoaderRegistry() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Return the class loader of the shared jar with the given digest, creating it on first use. Every call must be
+   * balanced by a call to {@link #release(ClassLoader, String)}.
+   *
+   * @param parent the parent of the shared class loader
+   * @param digest the SHA-256 digest of the shared jar
+   * @param urls   the URLs of the shared class loader, only used if it is created
+   * @return the shared class loader
+   */
+  public static synchronized @NotNull ClassLoader acquire(
+      final @Nullable ClassLoader parent,
+      final @NotNull String digest,
+      final @NotNull URL @NotNull [] urls) {
+    final Map.Entry<URLClassLoader, Integer> shared = registry.computeIfAbsent(parent, key -> new HashMap<>())
+        .computeIfAbsent(digest, key -> new AbstractMap.SimpleEntry<>(new URLClassLoader(urls, parent), 0));
+    shared.setValue(shared.getValue() + 1);
+    return shared.getKey();
+  }
+
+  /**
+   * Release a class loader returned from {@link #acquire(ClassLoader, String, URL[])}. It is closed once the last
+   * plugin using it released it.
+   *
+   * @param parent the parent of the shared class loader
+   * @param digest the SHA-256 digest of the shared jar
+   */
+  public static void release(final @Nullable ClassLoader parent, final @NotNull String digest) throws IOException {
+    final URLClassLoader released;
+    synchronized (SharedClassLoaderRegistry.class) {
+      final Map<String, Map.Entry<URLClassLoader, Integer>> sharedClassLoaders = registry.get(parent);
+      final Map.Entry<URLClassLoader, Integer> shared = sharedClassLoaders == null ? null : sharedClassLoaders.get(digest);
+      if (shared == null) {
+        return;
+      }
+      shared.setValue(shared.getValue() - 1);
+      if (shared.getValue() > 0) {
+        return;
+      }
+      sharedClassLoaders.remove(digest);
+      if (sharedClassLoaders.isEmpty()) {
+        registry.remove(parent);
+      }
+      released = shared.getKey();
+    }
+    released.close();
+  }
+}
@@ -1,9 +1,14 @@
 package ink.bgp.hcloader;
 
+import ink.bgp.hcloader.archive.Archive;
+import ink.bgp.hcloader.archive.ExplodedArchive;
 import ink.bgp.hcloader.archive.JarFileArchive;
+import ink.bgp.hcloader.archive.NestedJarIndex;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import sun.misc.Unsafe;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,10 +20,30 @@ import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
 public final class StaticInjector {
+  // never relocated, see SharedClassLoaderRegistry and SharedJarFileRegistry
+  private static final String SHARED_CLASS_LOADER_REGISTRY = "ink.bgp.hcloader.SharedClassLoaderRegistry";
+  private static final String SHARED_JAR_FILE_REGISTRY = "ink.bgp.hcloader.SharedJarFileRegistry";
+  private static final String DELEGATE_PREFIX = "META-INF/hcloader/delegate/";
+  private static final String SHARED_PREFIX = "META-INF/hcloader/shared/";
+  // keep exploded plugins indexed and watched, only worth it while their directories change at runtime
+  private static final boolean WATCH_EXPLODED = Boolean.getBoolean("hcloader.exploded.watch");
+
   private StaticInjector() {
     throw new UnsupportedOperationException();
   }
@@ -35,13 +60,19 @@ public final class StaticInjector {
 
     final URLClassLoader targetClassLoader = (URLClassLoader) targetClass.getClassLoader();
     final File pluginFile = new File(targetClass.getProtectionDomain().getCodeSource().getLocation().getFile());
-    final JarFileArchive pluginArchive = new JarFileArchive(pluginFile);
+    if (JarFileArchive.isSharedPoolEnabled()) {
+      JarFileArchive.setSharedJarFileRegistry(
+          sharedClass(lookup, targetClassLoader.getParent(), SHARED_JAR_FILE_REGISTRY));
+    }
+    final Archive pluginArchive = openArchive(pluginFile);
 
     final LaunchedURLClassLoader delegateClassLoader = new LaunchedURLClassLoader(pluginArchive, new URL[0], targetClassLoader);
     final MethodHandle urlClassLoaderAddUrlHandle = lookup.findVirtual(URLClassLoader.class, "addURL", MethodType.methodType(void.class, URL.class));
 
-    load(urlClassLoaderAddUrlHandle, targetClassLoader, delegateClassLoader, pluginArchive);
-    scanDelegateConfig(targetClassLoader, delegateClassLoader);
+    final Set<String> appliedDelegateConfigs = new HashSet<>();
+
+    load(lookup, urlClassLoaderAddUrlHandle, targetClassLoader, delegateClassLoader, pluginArchive);
+    scanDelegateConfig(targetClassLoader, delegateClassLoader, appliedDelegateConfigs);
 
     for (final Field field : targetClass.getDeclaredFields()) {
       if (!Modifier.isStatic(field.getModifiers()) || !field.getName().startsWith("$hcloader$")) {
@@ -68,8 +99,10 @@ public final class StaticInjector {
         case "$hcloader$addDelegateFile": {
           value = field.getType().cast((Consumer<File>) file -> {
             try {
-              load(urlClassLoaderAddUrlHandle, targetClassLoader, delegateClassLoader, new JarFileArchive(file));
-              scanDelegateConfig(targetClassLoader, delegateClassLoader);
+              final Archive delegateArchive = openArchive(file);
+              delegateClassLoader.addManagedArchive(delegateArchive);
+              load(lookup, urlClassLoaderAddUrlHandle, targetClassLoader, delegateClassLoader, delegateArchive);
+              scanDelegateConfig(targetClassLoader, delegateClassLoader, appliedDelegateConfigs);
             } catch (Throwable e) {
               throwImpl(e);
             }
@@ -94,46 +127,180 @@ public final class StaticInjector {
     }
   }
 
+  /**
+   * Exploded plugins are development layouts that change while the server runs, so their nested archives are read
+   * from an index that a watch service keeps current instead of walking the directory again.
+   */
+  private static @NotNull Archive openArchive(final @NotNull File file) throws IOException {
+    if (!file.isDirectory()) {
+      return new JarFileArchive(file);
+    }
+    return WATCH_EXPLODED ? new ExplodedArchive(file, true, true) : new ExplodedArchive(file);
+  }
+
   private static void scanDelegateConfig(
       final @NotNull URLClassLoader targetClassLoader,
-      final @NotNull LaunchedURLClassLoader delegateClassLoader) throws IOException {
-    final Enumeration<URL> delegateConfigUrls = targetClassLoader.findResources("META-INF/hcloader/delegateconfig");
-    while (delegateConfigUrls.hasMoreElements()) {
-      URL delegateConfigUrl = delegateConfigUrls.nextElement();
-      try (InputStream in = delegateConfigUrl.openStream()) {
-        LoadConfigEntry.load(in, delegateClassLoader);
+      final @NotNull LaunchedURLClassLoader delegateClassLoader,
+      final @NotNull Set<@NotNull String> appliedDelegateConfigs) throws IOException {
+    synchronized (appliedDelegateConfigs) {
+      final List<LoadConfigEntry> configEntries = new ArrayList<>();
+      final Enumeration<URL> delegateConfigUrls = targetClassLoader.findResources("META-INF/hcloader/delegateconfig");
+      while (delegateConfigUrls.hasMoreElements()) {
+        URL delegateConfigUrl = delegateConfigUrls.nextElement();
+        if (!appliedDelegateConfigs.add(delegateConfigUrl.toExternalForm())) {
+          continue;
+        }
+        try (InputStream in = delegateConfigUrl.openStream()) {
+          configEntries.addAll(LoadConfigEntry.read(in));
+        }
+      }
+      if (!configEntries.isEmpty()) {
+        delegateClassLoader.addConfigs(configEntries);
       }
     }
   }
 
   private static void load(
+      final @NotNull MethodHandles.Lookup lookup,
       final @NotNull MethodHandle urlClassLoaderAddUrlHandle,
       final @NotNull URLClassLoader targetClassLoader,
       final @NotNull LaunchedURLClassLoader launchedURLClassLoader,
-      final @NotNull JarFileArchive jarFileArchive) throws Throwable {
-    urlClassLoaderAddUrlHandle.invokeExact(targetClassLoader, jarFileArchive.getUrl());
+      final @NotNull Archive pluginArchive) throws Throwable {
+    urlClassLoaderAddUrlHandle.invokeExact(targetClassLoader, pluginArchive.getUrl());
 
-    jarFileArchive.getNestedArchives(
-        entry -> entry.getName().startsWith("META-INF/hcloader/embedded/"),
-        entry -> entry.getName().startsWith("META-INF/hcloader/embedded/")
-    ).forEachRemaining(archive -> {
+    // Built with an up-to-date index the nested jars are opened by name, and the delegate loader
+    // skips probing for packages that none of them has. Otherwise scan for them
+    final JarFileArchive jarFileArchive = pluginArchive instanceof JarFileArchive ? (JarFileArchive) pluginArchive : null;
+    final NestedJarIndex index = jarFileArchive == null ? null : jarFileArchive.getNestedJarIndex();
+    final List<URL> delegateUrls = new ArrayList<>();
+
+    // The delegate loader owns every nested archive, including the embedded ones handed to the
+    // target loader, so closing it releases the whole plugin
+    final Map<String, Consumer<Archive>> consumers = new LinkedHashMap<>();
+    consumers.put("META-INF/hcloader/embedded/", archive -> {
       try {
         urlClassLoaderAddUrlHandle.invokeExact(targetClassLoader, archive.getUrl());
+        launchedURLClassLoader.addManagedArchive(archive);
       } catch (Throwable e) {
         throw throwImpl(e);
       }
     });
-
-    jarFileArchive.getNestedArchives(
-        entry -> entry.getName().startsWith("META-INF/hcloader/delegate/"),
-        entry -> entry.getName().startsWith("META-INF/hcloader/delegate/")
-    ).forEachRemaining(it -> {
+    consumers.put(DELEGATE_PREFIX, archive -> {
       try {
-        launchedURLClassLoader.addURL(it.getUrl());
+        if (index != null) {
+          delegateUrls.add(archive.getUrl());
+        } else {
+          launchedURLClassLoader.addURL(archive.getUrl());
+        }
+        launchedURLClassLoader.addManagedArchive(archive);
       } catch (MalformedURLException e) {
         throw throwImpl(e);
       }
     });
+    if (jarFileArchive != null) {
+      jarFileArchive.forEachNestedArchive(consumers, index);
+    } else {
+      pluginArchive.forEachNestedArchive(consumers);
+    }
+    if (index != null) {
+      launchedURLClassLoader.addIndexedURLs(delegateUrls, index.getPackages(DELEGATE_PREFIX));
+    }
+
+    final ClassLoader parent = targetClassLoader.getParent();
+    final Consumer<Path> sharedConsumer = path -> {
+      try {
+        final Class<?> registry = sharedClass(lookup, parent, SHARED_CLASS_LOADER_REGISTRY);
+        final MethodHandle acquire = lookup.findStatic(registry, "acquire",
+            MethodType.methodType(ClassLoader.class, ClassLoader.class, String.class, URL[].class));
+        final MethodHandle release = lookup.findStatic(registry, "release",
+            MethodType.methodType(void.class, ClassLoader.class, String.class));
+        final String digest = sha256(path);
+        final ClassLoader sharedClassLoader = (ClassLoader) acquire.invokeExact(
+            parent, digest, new URL[] { path.toUri().toURL() });
+        launchedURLClassLoader.addSharedClassLoader(sharedClassLoader, () -> {
+          try {
+            release.invokeExact(parent, digest);
+          } catch (Throwable e) {
+            throw throwImpl(e);
+          }
+        });
+      } catch (Throwable e) {
+        throw throwImpl(e);
+      }
+    };
+    if (jarFileArchive != null) {
+      jarFileArchive.forEachUnpackedNestedArchive(SHARED_PREFIX, sharedConsumer, index);
+    } else {
+      // exploded, the shared jars already are files
+      pluginArchive.forEachNestedArchive(Collections.<String, Consumer<Archive>>singletonMap(SHARED_PREFIX, archive -> {
+        try {
+          sharedConsumer.accept(Paths.get(archive.getUrl().toURI()));
+        } catch (Throwable e) {
+          throw throwImpl(e);
+        }
+      }));
+    }
+  }
+
+  /**
+   * Return the class of the runtime that every plugin with the given parent class loader uses, such as
+   * {@link SharedClassLoaderRegistry}, defining it in that class loader, or in the system class loader for the
+   * bootstrap class loader, on first use.
+   */
+  private static @NotNull Class<?> sharedClass(
+      final @NotNull MethodHandles.Lookup lookup,
+      final @Nullable ClassLoader parent,
+      final @NotNull String name) throws Throwable {
+    final ClassLoader holder = parent == null ? ClassLoader.getSystemClassLoader() : parent;
+    synchronized (holder) {
+      try {
+        return Class.forName(name, true, holder);
+      } catch (ClassNotFoundException e) {
+        // first plugin with this parent
+      }
+      final byte[] bytes;
+      try (InputStream in = StaticInjector.class.getResourceAsStream(
+          "/" + name.replace('.', '/') + ".class")) {
+        if (in == null) {
+          throw new IllegalStateException(name + " is missing");
+        }
+        bytes = readAllBytes(in);
+      }
+      final MethodHandle defineClass = lookup.findVirtual(ClassLoader.class, "defineClass",
+          MethodType.methodType(Class.class, String.class, byte[].class, int.class, int.class));
+      try {
+        return (Class<?>) defineClass.invokeExact(holder, name, bytes, 0, bytes.length);
+      } catch (LinkageError e) {
+        // defined concurrently through another lock
+        return Class.forName(name, true, holder);
+      }
+    }
+  }
+
+  private static @NotNull String sha256(final @NotNull Path path) throws IOException, NoSuchAlgorithmException {
+    final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    try (InputStream in = Files.newInputStream(path)) {
+      final byte[] buffer = new byte[32 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    final StringBuilder hex = new StringBuilder();
+    for (final byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  private static byte @NotNull [] readAllBytes(final @NotNull InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
   }
 
   @SuppressWarnings("unchecked")